@@ -0,0 +1,49 @@
+package com.brackeen.javagamebook.graphics;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks advancing an Animation and getting its current
+ * image, as the game does for every sprite every tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AnimationBenchmark {
+
+    // length of a game tick, in milliseconds
+    private static final long TICK = 10;
+
+    @Param({"1", "8", "32"})
+    public int frameCount;
+
+    private Animation anim;
+
+    @Setup
+    public void setUp() {
+        anim = new Animation();
+        for (int i=0; i<frameCount; i++) {
+            anim.addFrame(new BufferedImage(64, 64,
+                BufferedImage.TYPE_INT_ARGB), 100);
+        }
+        anim.start();
+    }
+
+
+    @Benchmark
+    public Image updateAndGetImage() {
+        anim.update(TICK);
+        return anim.getImage();
+    }
+}
@@ -0,0 +1,96 @@
+package com.brackeen.javagamebook.sound;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.brackeen.javagamebook.graphics.Animation;
+import com.brackeen.javagamebook.graphics.Sprite;
+
+/**
+ * Benchmarks filtering one buffer of sound (100ms of 44100Hz,
+ * 16-bit, mono samples) with each SoundFilter, both encoded as
+ * bytes and already decoded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SoundFilterBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BUFFER_SIZE = 2 * SAMPLE_RATE / 10;
+
+    @Param({"echo", "reverb", "filter3d", "filter3dStereo", "sequence"})
+    public String filterType;
+
+    private SoundFilter filter;
+    private byte[] source;
+    private byte[] samples;
+    private short[] decodedSource;
+    private short[] decoded;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        source = new byte[BUFFER_SIZE];
+        for (int i=0; i<BUFFER_SIZE; i+=2) {
+            SoundFilter.setSample(source, i,
+                (short)(random.nextInt(20000) - 10000));
+        }
+        samples = new byte[BUFFER_SIZE];
+        decodedSource = new short[BUFFER_SIZE / 2];
+        SoundFilter.decode(source, 0, decodedSource, 0,
+            decodedSource.length);
+        decoded = new short[BUFFER_SIZE / 2];
+
+        // a sound source halfway to the edge of hearing
+        Sprite sourceSprite = new Sprite(new Animation());
+        Sprite listener = new Sprite(new Animation());
+        sourceSprite.setX(300);
+        Filter3d filter3d = new Filter3d(sourceSprite, listener, 600);
+
+        EchoFilter echo = new EchoFilter(SAMPLE_RATE / 4, .6f);
+        if (filterType.equals("echo")) {
+            filter = echo;
+        }
+        else if (filterType.equals("reverb")) {
+            filter = new ReverbFilter(.7f, .5f);
+        }
+        else if (filterType.equals("filter3d")) {
+            filter = filter3d;
+        }
+        else if (filterType.equals("filter3dStereo")) {
+            filter = new Filter3d(sourceSprite, listener, 600, 2);
+        }
+        else {
+            filter = new FilterSequence(
+                new SoundFilter[] { echo, filter3d });
+        }
+    }
+
+
+    @Benchmark
+    public byte[] filter() {
+        // start from the same samples every time
+        System.arraycopy(source, 0, samples, 0, BUFFER_SIZE);
+        filter.filter(samples, 0, BUFFER_SIZE);
+        return samples;
+    }
+
+
+    @Benchmark
+    public short[] filterDecoded() {
+        System.arraycopy(decodedSource, 0, decoded, 0,
+            decoded.length);
+        filter.filter(decoded, 0, decoded.length);
+        return decoded;
+    }
+}
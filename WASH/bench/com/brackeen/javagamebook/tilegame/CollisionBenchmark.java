@@ -0,0 +1,131 @@
+package com.brackeen.javagamebook.tilegame;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.brackeen.javagamebook.graphics.Animation;
+import com.brackeen.javagamebook.graphics.Sprite;
+
+/**
+ * Benchmarks the collision checks of WashStart: tile
+ * collisions, and sprite collisions with a varying number of
+ * sprites in the map.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CollisionBenchmark {
+
+    private static final int MAP_WIDTH = 1000;
+    private static final int MAP_HEIGHT = 20;
+    private static final int NUM_PROBES = 64;
+
+    @Param({"100", "1000", "10000"})
+    public int spriteCount;
+
+    private WashStart game;
+    private Sprite[] sprites;
+    private Sprite probe;
+    private float[] probeX;
+    private float[] probeY;
+    private int nextProbe;
+    private ArrayList<Sprite> collisions;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int tileSize = TileMapRenderer.tilesToPixels(1);
+        BufferedImage tile = new BufferedImage(tileSize, tileSize,
+            BufferedImage.TYPE_INT_ARGB);
+        Animation anim = new Animation();
+        anim.addFrame(new BufferedImage(48, 48,
+            BufferedImage.TYPE_INT_ARGB), 100);
+
+        // a floor, with some random platforms
+        TileMap map = new TileMap(MAP_WIDTH, MAP_HEIGHT);
+        for (int x=0; x<MAP_WIDTH; x++) {
+            map.setTile(x, MAP_HEIGHT - 1, tile);
+            if (random.nextInt(4) == 0) {
+                map.setTile(x, 5 + random.nextInt(MAP_HEIGHT - 7),
+                    tile);
+            }
+        }
+
+        int mapWidth = TileMapRenderer.tilesToPixels(MAP_WIDTH);
+        int mapHeight = TileMapRenderer.tilesToPixels(MAP_HEIGHT);
+        sprites = new Sprite[spriteCount];
+        for (int i=0; i<spriteCount; i++) {
+            Sprite sprite = new Sprite(anim);
+            sprite.setX(random.nextInt(mapWidth));
+            sprite.setY(random.nextInt(mapHeight));
+            sprites[i] = sprite;
+            map.addSprite(sprite);
+        }
+
+        probe = new Sprite(anim);
+        probeX = new float[NUM_PROBES];
+        probeY = new float[NUM_PROBES];
+        for (int i=0; i<NUM_PROBES; i++) {
+            probeX[i] = random.nextInt(mapWidth);
+            probeY[i] = random.nextInt(mapHeight);
+        }
+        collisions = new ArrayList<Sprite>();
+
+        game = new WashStart();
+        game.setMap(map);
+    }
+
+
+    /**
+     * Moves the probe sprite to its next position.
+     */
+    private Sprite nextProbe() {
+        nextProbe = (nextProbe + 1) % NUM_PROBES;
+        probe.setX(probeX[nextProbe]);
+        probe.setY(probeY[nextProbe]);
+        return probe;
+    }
+
+
+    @Benchmark
+    public Point tileCollision() {
+        Sprite sprite = nextProbe();
+        return game.getTileCollision(sprite, sprite.getX(),
+            sprite.getY() + 10);
+    }
+
+
+    @Benchmark
+    public Sprite spriteCollision() {
+        return game.getSpriteCollision(nextProbe());
+    }
+
+
+    @Benchmark
+    public int spriteCollisions() {
+        collisions.clear();
+        return game.getSpriteCollisions(nextProbe(), collisions);
+    }
+
+
+    @Benchmark
+    public void isCollisionAll(Blackhole blackhole) {
+        Sprite sprite = nextProbe();
+        for (int i=0; i<sprites.length; i++) {
+            blackhole.consume(game.isCollision(sprite, sprites[i]));
+        }
+    }
+}
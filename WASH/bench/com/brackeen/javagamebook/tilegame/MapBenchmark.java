@@ -0,0 +1,146 @@
+package com.brackeen.javagamebook.tilegame;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks resetting the first map with ResourceManager,
+ * compiling it from text and reading it in the binary format,
+ * and drawing it with TileMapRenderer to an offscreen image the
+ * size of the game's screen.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MapBenchmark {
+
+    private static final int SCREEN_WIDTH = 800;
+    private static final int SCREEN_HEIGHT = 600;
+
+    private BufferedImage screen;
+    private Graphics2D g;
+    private ResourceManager resourceManager;
+    private TileMapRenderer renderer;
+    private TileMap map;
+    private int scroll;
+    private String mapText;
+    private ByteBuffer mapBinary;
+    private byte[] column;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        screen = new BufferedImage(SCREEN_WIDTH, SCREEN_HEIGHT,
+            BufferedImage.TYPE_INT_RGB);
+        g = screen.createGraphics();
+        resourceManager = new ResourceManager(
+            g.getDeviceConfiguration());
+        map = resourceManager.loadNextMap();
+
+        // sprites are spawned when their chunk first comes into
+        // view, so scroll across the whole map once, so that
+        // loadMap() resets every sprite of the level
+        int mapWidth = TileMapRenderer.tilesToPixels(map.getWidth());
+        for (int x=0; x<mapWidth; x+=SCREEN_WIDTH / 2) {
+            scrollTo(x);
+        }
+        scrollTo(0);
+
+        renderer = new TileMapRenderer();
+        renderer.setBackground(ResourceManager.loadImage(
+            "background" + resourceManager.getCurrentMap() + ".jpg"));
+
+        mapText = new String(read("/maps/map1.txt"), "UTF-8");
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        MapFile.compile(new StringReader(mapText)).write(binary);
+        mapBinary = ByteBuffer.allocateDirect(binary.size());
+        mapBinary.put(binary.toByteArray());
+        column = new byte[map.getHeight()];
+    }
+
+
+    private static byte[] read(String name) throws IOException {
+        InputStream in = MapBenchmark.class.getResourceAsStream(name);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+        resourceManager.close();
+    }
+
+
+    @Benchmark
+    public TileMap loadMap() {
+        return resourceManager.reloadMap();
+    }
+
+
+    @Benchmark
+    public MapFile compileText() throws IOException {
+        return MapFile.compile(new StringReader(mapText));
+    }
+
+
+    @Benchmark
+    public int readBinary() throws IOException {
+        // read every tile and spawn point, as a level streams them
+        MapFile mapFile = new MapFile(mapBinary);
+        int sum = 0;
+        for (int x=0; x<mapFile.getWidth(); x++) {
+            mapFile.getColumn(x, column);
+            sum += column[0];
+        }
+        for (int i=0; i<mapFile.getSpawnCount(); i++) {
+            sum += mapFile.getSpawnX(i) + mapFile.getSpawnChar(i);
+        }
+        return sum;
+    }
+
+
+    @Benchmark
+    public BufferedImage draw() {
+        // scroll across the map, so chunks come into view
+        int mapWidth = TileMapRenderer.tilesToPixels(map.getWidth());
+        scroll = (scroll + 8) % mapWidth;
+        scrollTo(scroll);
+        renderer.draw(g, map, SCREEN_WIDTH, SCREEN_HEIGHT);
+        return screen;
+    }
+
+
+    /**
+     * Moves the player to the specified x position, and the
+     * map's window to the screen around it, as the game does.
+     */
+    private void scrollTo(int x) {
+        map.getPlayer().setX(x);
+        int offsetX = TileMapRenderer.getOffsetX(map, x, SCREEN_WIDTH);
+        map.setWindow(TileMapRenderer.pixelsToTiles(-offsetX),
+            TileMapRenderer.pixelsToTiles(-offsetX + SCREEN_WIDTH - 1));
+    }
+}
@@ -0,0 +1,82 @@
+package com.brackeen.javagamebook.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks the latency from runTask() to the task starting on
+ * an idle pooled thread, for the old ThreadPool (LegacyThreadPool)
+ * and the current one, with platform and virtual threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThreadPoolBenchmark {
+
+    @Param({"legacy", "lockfree", "virtual"})
+    public String pool;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    private LegacyThreadPool legacyPool;
+    private ThreadPool threadPool;
+    private volatile long startTime;
+    private Runnable task;
+
+    @Setup
+    public void setUp() {
+        if (pool.equals("legacy")) {
+            legacyPool = new LegacyThreadPool(numThreads);
+        }
+        else {
+            threadPool = new ThreadPool(numThreads,
+                pool.equals("virtual"));
+        }
+        task = new Runnable() {
+            public void run() {
+                startTime = System.nanoTime();
+            }
+        };
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        if (legacyPool != null) {
+            legacyPool.close();
+        }
+        else {
+            threadPool.close();
+        }
+    }
+
+
+    @Benchmark
+    public long enqueueToStart() {
+        startTime = 0;
+        long enqueueTime = System.nanoTime();
+        if (legacyPool != null) {
+            legacyPool.runTask(task);
+        }
+        else {
+            threadPool.runTask(task);
+        }
+
+        // wait for the task to start
+        long started;
+        while ((started = startTime) == 0) {
+            // spin
+        }
+        return started - enqueueTime;
+    }
+}
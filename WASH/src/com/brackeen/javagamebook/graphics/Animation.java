@@ -1,5 +1,6 @@
 package com.brackeen.javagamebook.graphics;
 
+import java.awt.Graphics;
 import java.awt.Image;
 import java.util.ArrayList;
 
@@ -53,9 +54,44 @@ public class Animation {
      */
     public synchronized void addFrame(Image image,
         long duration)
+    {
+        addFrame(image, ImageTransformCache.NONE, duration);
+    }
+
+
+    /**
+     * Adds a transformed (mirrored and/or flipped) image to the
+     * animation with the specified duration. The transformed
+     * image is not created until the frame is shown, and is
+     * kept in the default ImageTransformCache. The frame keeps
+     * its entry in the cache, so it is only looked up again if
+     * it is evicted.
+     * @param image  the source image of the added frame
+     * @param transform  the transform, as defined in
+     * ImageTransformCache
+     * @param duration  the duration of the added frame
+     */
+    public synchronized void addFrame(Image image, int transform,
+        long duration)
     {
         totalDuration += duration;
-        frames.add(new AnimFrame(image, totalDuration));
+        frames.add(new AnimFrame(image, transform, null,
+            totalDuration));
+    }
+
+
+    /**
+     * Adds a region of a TextureAtlas to the animation with the
+     * specified duration (time to display the region).
+     * @param region  the atlas region of the added frame
+     * @param duration  the duration of the added frame
+     */
+    public synchronized void addFrame(TextureAtlas.Region region,
+        long duration)
+    {
+        totalDuration += duration;
+        frames.add(new AnimFrame(null, ImageTransformCache.NONE,
+            region, totalDuration));
     }
 
 
@@ -101,9 +137,56 @@ public class Animation {
             return null;
         }
         else {
-            return getFrame(currFrameIndex).image;
+            return getFrame(currFrameIndex).getImage();
         }
     }
+
+
+    /**
+     * Draws this Animation's current frame at the specified
+     * location. Frames packed in a TextureAtlas are drawn
+     * straight from the atlas page.
+     * @param g  the graphics context
+     * @param x  x position to draw at
+     * @param y  y position to draw at
+     */
+    public synchronized void draw(Graphics g, int x, int y) {
+        if (frames.size() > 0) {
+            AnimFrame frame = getFrame(currFrameIndex);
+            if (frame.region != null) {
+                frame.region.draw(g, x, y);
+            }
+            else {
+                g.drawImage(frame.getImage(), x, y, null);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the width of this Animation's current frame.
+     * @return the width of the current frame
+     */
+    public synchronized int getWidth() {
+        AnimFrame frame = getFrame(currFrameIndex);
+        if (frame.region != null) {
+            return frame.region.getWidth();
+        }
+        return frame.image.getWidth(null);
+    }
+
+
+    /**
+     * Gets the height of this Animation's current frame.
+     * @return the height of the current frame
+     */
+    public synchronized int getHeight() {
+        AnimFrame frame = getFrame(currFrameIndex);
+        if (frame.region != null) {
+            return frame.region.getHeight();
+        }
+        return frame.image.getHeight(null);
+    }
     
     /**
      * Gets this Animation's current frame.
@@ -121,16 +204,51 @@ public class Animation {
     private class AnimFrame {
 
         Image image;
+        int transform;
+        TextureAtlas.Region region;
         long endTime;
+        // the transformed image in the cache, once shown
+        ImageTransformCache.Entry transformed;
         
         /**
-         * Creates a new AnimFrame with the images and an end time.
-         * @param image the image of the frame
+         * Creates a new AnimFrame with an image (and its
+         * transform) or an atlas region, and an end time.
+         * @param image the source image of the frame
+         * @param transform the transform of the source image
+         * @param region the atlas region of the frame
          * @param endTime the end time of the frame
          */
-        public AnimFrame(Image image, long endTime) {
+        public AnimFrame(Image image, int transform,
+            TextureAtlas.Region region, long endTime)
+        {
             this.image = image;
+            this.transform = transform;
+            this.region = region;
             this.endTime = endTime;
         }
+
+        /**
+         * Gets the image of this frame.
+         * @return the image of the frame
+         */
+        public Image getImage() {
+            if (region != null) {
+                return region.getImage();
+            }
+            if (transform == ImageTransformCache.NONE) {
+                return image;
+            }
+            Image result = null;
+            if (transformed != null) {
+                result = transformed.get();
+            }
+            while (result == null) {
+                // not shown yet, or evicted
+                transformed = ImageTransformCache.getDefault()
+                    .getEntry(image, transform);
+                result = transformed.get();
+            }
+            return result;
+        }
     }
 }
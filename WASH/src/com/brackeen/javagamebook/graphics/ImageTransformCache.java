@@ -0,0 +1,279 @@
+package com.brackeen.javagamebook.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * The ImageTransformCache class creates mirrored and flipped
+ * copies of images on demand, and keeps the recently used copies
+ * up to a budget of bytes. Copies that are evicted are simply
+ * created again the next time they are needed, so only the
+ * variants that are actually drawn use memory.
+ * <p>Each copy is kept in an Entry. An Animation frame keeps the
+ * Entry of its copy, so drawing it takes no lookup or lock; the
+ * Entry just notes that it was used. When the cache is over
+ * budget, a "clock" sweeps the entries, evicting the ones that
+ * weren't used since the last sweep.
+ */
+public class ImageTransformCache {
+
+    public static final int NONE = 0;
+    public static final int MIRROR = 1;
+    public static final int FLIP = 2;
+    public static final int FLIP_MIRROR = 3;
+
+    // default budget: enough for every player and fly variant
+    private static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+
+    private static ImageTransformCache defaultCache =
+        new ImageTransformCache(DEFAULT_MAX_BYTES);
+
+    private GraphicsConfiguration gc;
+    private IdentityHashMap<Image, Entry>[] images;
+    private ArrayList<Entry> clock;
+    private int hand;
+    private Entry newest;
+    private long maxBytes;
+    private long bytes;
+
+    /**
+     * Creates a new ImageTransformCache that keeps up to the
+     * specified number of bytes of transformed images.
+     * @param maxBytes  the maximum size of the cache, in bytes
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ImageTransformCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        // one map per transform, keyed by the source image, so a
+        // lookup doesn't create a key
+        images = new IdentityHashMap[FLIP_MIRROR + 1];
+        for (int i=0; i<images.length; i++) {
+            images[i] = new IdentityHashMap<Image, Entry>();
+        }
+        clock = new ArrayList<Entry>();
+    }
+
+
+    /**
+     * Gets the cache shared by the game.
+     * @return the default cache
+     */
+    public static ImageTransformCache getDefault() {
+        return defaultCache;
+    }
+
+
+    /**
+     * Sets the GraphicsConfiguration transformed images are
+     * made compatible with. Images that are already cached are
+     * dropped.
+     * @param gc  the graphics configuration
+     */
+    public synchronized void setGraphicsConfiguration(
+        GraphicsConfiguration gc)
+    {
+        this.gc = gc;
+        clear();
+    }
+
+
+    /**
+     * Sets the maximum size of this cache, in bytes.
+     * @param maxBytes  the maximum size of the cache
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+
+    /**
+     * Gets the number of bytes used by the cached images.
+     * @return the size of the cache, in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+
+    /**
+     * Gets the number of cached images.
+     * @return the number of cached images
+     */
+    public synchronized int size() {
+        return clock.size();
+    }
+
+
+    /**
+     * Gets a transformed copy of an image, creating it if it is
+     * not in the cache.
+     * @param image  the source image
+     * @param transform  NONE, MIRROR, FLIP, or FLIP_MIRROR
+     * @return the transformed image
+     */
+    public Image get(Image image, int transform) {
+        if (transform == NONE) {
+            return image;
+        }
+        Image transformed;
+        do {
+            transformed = getEntry(image, transform).get();
+        }
+        while (transformed == null);
+        return transformed;
+    }
+
+
+    /**
+     * Gets the Entry of a transformed copy of an image, creating
+     * the copy if it is not in the cache. The Entry can be kept:
+     * its get() returns the copy until it is evicted, and null
+     * after that.
+     * @param image  the source image
+     * @param transform  MIRROR, FLIP, or FLIP_MIRROR
+     * @return the entry of the transformed image
+     */
+    synchronized Entry getEntry(Image image, int transform) {
+        Entry entry = images[transform].get(image);
+        if (entry == null) {
+            entry = new Entry(image, transform,
+                createTransformedImage(image, transform));
+            images[transform].put(image, entry);
+            clock.add(entry);
+            newest = entry;
+            bytes += getSize(entry.transformed);
+            evict();
+        }
+        return entry;
+    }
+
+
+    /**
+     * Removes all images from this cache.
+     */
+    public synchronized void clear() {
+        for (int i=0; i<clock.size(); i++) {
+            clock.get(i).drop();
+        }
+        for (int i=0; i<images.length; i++) {
+            images[i].clear();
+        }
+        clock.clear();
+        hand = 0;
+        newest = null;
+        bytes = 0;
+    }
+
+
+    /**
+     * Removes images that weren't used since the clock last
+     * passed them, until the cache is within its budget. The
+     * newest image is always kept.
+     */
+    private void evict() {
+        while (bytes > maxBytes && clock.size() > 1) {
+            if (hand >= clock.size()) {
+                hand = 0;
+            }
+            Entry entry = clock.get(hand);
+            if (entry == newest || entry.used) {
+                // give it another chance
+                entry.used = false;
+                hand++;
+            }
+            else {
+                clock.remove(hand);
+                images[entry.transform].remove(entry.source);
+                bytes -= getSize(entry.transformed);
+                entry.drop();
+            }
+        }
+    }
+
+
+    /**
+     * Creates a transformed copy of an image.
+     */
+    private Image createTransformedImage(Image image, int transform) {
+        float x = ((transform & MIRROR) != 0) ? -1 : 1;
+        float y = ((transform & FLIP) != 0) ? -1 : 1;
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+
+        // set up the transform
+        AffineTransform at = new AffineTransform();
+        at.scale(x, y);
+        at.translate(
+            (x-1) * width / 2,
+            (y-1) * height / 2);
+
+        // create a transparent (not translucent) image
+        Image newImage;
+        if (gc != null) {
+            newImage = gc.createCompatibleImage(width, height,
+                Transparency.BITMASK);
+        }
+        else {
+            newImage = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        }
+
+        // draw the transformed image
+        Graphics2D g = (Graphics2D)newImage.getGraphics();
+        g.drawImage(image, at, null);
+        g.dispose();
+
+        return newImage;
+    }
+
+
+    /**
+     * Gets the approximate size of an image, in bytes.
+     */
+    private static long getSize(Image image) {
+        return 4L * image.getWidth(null) * image.getHeight(null);
+    }
+
+
+    /**
+     * An Entry is a transformed copy of a source image, and
+     * whether it was used since the clock last passed it.
+     */
+    static class Entry {
+
+        private Image source;
+        private int transform;
+        private volatile Image transformed;
+        // set without a lock; a lost update only costs the
+        // image an early eviction
+        private boolean used;
+
+        private Entry(Image source, int transform,
+            Image transformed)
+        {
+            this.source = source;
+            this.transform = transform;
+            this.transformed = transformed;
+        }
+
+        /**
+         * Gets the transformed image, or null if it was evicted.
+         */
+        Image get() {
+            used = true;
+            return transformed;
+        }
+
+        private void drop() {
+            transformed.flush();
+            transformed = null;
+        }
+    }
+}
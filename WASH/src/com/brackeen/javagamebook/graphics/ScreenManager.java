@@ -9,18 +9,82 @@ import javax.swing.JFrame;
 /**
  * The ScreenManager class manages initializing and displaying
  * full screen graphics modes.
+ * <p>For running without a display, the ScreenManager can
+ * instead draw to an offscreen image (see setOffscreen()). In
+ * a headless environment there is no screen device, and only
+ * offscreen mode works.
  */
 public class ScreenManager {
 
     public static GraphicsDevice device;
 
+    private BufferedImage offscreen;
+
     /**
      * Creates a new ScreenManager object.
      */
     public ScreenManager() {
-        GraphicsEnvironment environment =
-            GraphicsEnvironment.getLocalGraphicsEnvironment();
-        device = environment.getDefaultScreenDevice();
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsEnvironment environment =
+                GraphicsEnvironment.getLocalGraphicsEnvironment();
+            device = environment.getDefaultScreenDevice();
+        }
+    }
+
+
+    /**
+     * Draws to an offscreen image of the specified size instead
+     * of a full screen window. Nothing is shown, but everything
+     * is drawn as usual, so the game can run on machines
+     * without a display.
+     * @param width  width of the offscreen image
+     * @param height  height of the offscreen image
+     */
+    public void setOffscreen(int width, int height) {
+        offscreen = new BufferedImage(width, height,
+            BufferedImage.TYPE_INT_RGB);
+    }
+
+
+    /**
+     * Returns whether this ScreenManager draws to an offscreen
+     * image.
+     * @return true if drawing offscreen
+     */
+    public boolean isOffscreen() {
+        return (offscreen != null);
+    }
+
+
+    /**
+     * Returns the offscreen image drawn to, or null if this
+     * ScreenManager isn't in offscreen mode.
+     * @return the offscreen image
+     */
+    public BufferedImage getOffscreenImage() {
+        return offscreen;
+    }
+
+
+    /**
+     * Gets the GraphicsConfiguration images should be
+     * compatible with: the full screen window's, or the
+     * offscreen image's.
+     * @return the graphics configuration, or <code>null</code>
+     * if there is neither
+     */
+    public GraphicsConfiguration getGraphicsConfiguration() {
+        if (offscreen != null) {
+            Graphics2D g = offscreen.createGraphics();
+            GraphicsConfiguration gc = g.getDeviceConfiguration();
+            g.dispose();
+            return gc;
+        }
+        Window window = getFullScreenWindow();
+        if (window != null) {
+            return window.getGraphicsConfiguration();
+        }
+        return null;
     }
 
 
@@ -62,6 +126,11 @@ public class ScreenManager {
      * @return the display mode for the device
      */
     public DisplayMode getCurrentDisplayMode() {
+        if (offscreen != null) {
+            return new DisplayMode(offscreen.getWidth(),
+                offscreen.getHeight(), 32,
+                DisplayMode.REFRESH_RATE_UNKNOWN);
+        }
         return device.getDisplayMode();
     }
 
@@ -164,6 +233,9 @@ public class ScreenManager {
      * @return graphic if the window isn't null, or <code>null</code> if it is
      */
     public Graphics2D getGraphics() {
+        if (offscreen != null) {
+            return offscreen.createGraphics();
+        }
         Window window = device.getFullScreenWindow();
         if (window != null) {
             BufferStrategy strategy = window.getBufferStrategy();
@@ -179,6 +251,10 @@ public class ScreenManager {
      * Updates the display.
      */
     public void update() {
+        if (offscreen != null) {
+            // nothing to show
+            return;
+        }
         Window window = device.getFullScreenWindow();
         if (window != null) {
             BufferStrategy strategy = window.getBufferStrategy();
@@ -198,18 +274,24 @@ public class ScreenManager {
      * @return window used in full screen mode
      */
     public JFrame getFullScreenWindow() {
+        if (device == null) {
+            return null;
+        }
         return (JFrame)device.getFullScreenWindow();
     }
 
 
     /**
      * Returns the width of the window currently used in full
-     * screen mode. Returns 0 if the device is not in full
-     * screen mode.
+     * screen mode, or of the offscreen image. Returns 0 if the
+     * device is not in full screen mode.
      * @return width of window if not null, or <code>0</code> if null
      */
     public int getWidth() {
-        Window window = device.getFullScreenWindow();
+        if (offscreen != null) {
+            return offscreen.getWidth();
+        }
+        Window window = getFullScreenWindow();
         if (window != null) {
             return window.getWidth();
         }
@@ -221,12 +303,15 @@ public class ScreenManager {
 
     /**
      * Returns the height of the window currently used in full
-     * screen mode. Returns 0 if the device is not in full
-     * screen mode.
+     * screen mode, or of the offscreen image. Returns 0 if the
+     * device is not in full screen mode.
      * @return height of window if not null, or <code>0</code> if null 
      */
     public int getHeight() {
-        Window window = device.getFullScreenWindow();
+        if (offscreen != null) {
+            return offscreen.getHeight();
+        }
+        Window window = getFullScreenWindow();
         if (window != null) {
             return window.getHeight();
         }
@@ -240,6 +325,11 @@ public class ScreenManager {
      * Restores the screen's display mode.
      */
     public void restoreScreen() {
+        if (offscreen != null) {
+            offscreen.flush();
+            offscreen = null;
+            return;
+        }
         Window window = device.getFullScreenWindow();
         if (window != null) {
             window.dispose();
@@ -258,10 +348,8 @@ public class ScreenManager {
     public BufferedImage createCompatibleImage(int w, int h,
         int transparancy)
     {
-        Window window = device.getFullScreenWindow();
-        if (window != null) {
-            GraphicsConfiguration gc =
-                window.getGraphicsConfiguration();
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (gc != null) {
             return gc.createCompatibleImage(w, h, transparancy);
         }
         return null;
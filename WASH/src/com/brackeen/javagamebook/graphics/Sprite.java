@@ -1,5 +1,6 @@
 package com.brackeen.javagamebook.graphics;
 
+import java.awt.Graphics;
 import java.awt.Image;
 
 /**
@@ -14,6 +15,11 @@ public class Sprite {
     // velocity (pixels per millisecond)
     private float dx;
     private float dy;
+    // position at the start of the current simulation tick
+    private float previousX;
+    private float previousY;
+    private boolean hasPrevious;
+    private Listener listener;
 
     /**
      * Creates a new Sprite object with the specified Animation.
@@ -39,9 +45,34 @@ public class Sprite {
      * @param elapsedTime the time elapsed since the animation began
      */
     public void update(long elapsedTime) {
+        int oldWidth = getWidth();
+        int oldHeight = getHeight();
         x += dx * elapsedTime;
         y += dy * elapsedTime;
         anim.update(elapsedTime);
+        if (listener != null && (dx != 0 || dy != 0)) {
+            listener.spriteMoved(this);
+        }
+        else {
+            checkSize(oldWidth, oldHeight);
+        }
+    }
+
+
+    /**
+     * Notifies the Listener if this Sprite's size changed from
+     * the specified size, as it can when the animation frame
+     * changes. Subclasses that change the Animation without
+     * calling update() should call this.
+     * @param oldWidth  the width before the change
+     * @param oldHeight  the height before the change
+     */
+    protected void checkSize(int oldWidth, int oldHeight) {
+        if (listener != null &&
+            (getWidth() != oldWidth || getHeight() != oldHeight))
+        {
+            listener.spriteMoved(this);
+        }
     }
 
     /**
@@ -66,6 +97,9 @@ public class Sprite {
      */
     public void setX(float x) {
         this.x = x;
+        if (listener != null) {
+            listener.spriteMoved(this);
+        }
     }
 
     /**
@@ -74,6 +108,9 @@ public class Sprite {
      */
     public void setY(float y) {
         this.y = y;
+        if (listener != null) {
+            listener.spriteMoved(this);
+        }
     }
 
     /**
@@ -82,7 +119,7 @@ public class Sprite {
      * @return width of Sprite's animation
      */
     public int getWidth() {
-        return anim.getImage().getWidth(null);
+        return anim.getWidth();
     }
 
     /**
@@ -91,7 +128,7 @@ public class Sprite {
      * @return height of Sprite's animation
      */
     public int getHeight() {
-        return anim.getImage().getHeight(null);
+        return anim.getHeight();
     }
 
     /**
@@ -130,6 +167,64 @@ public class Sprite {
         this.dy = dy;
     }
 
+    /**
+     * Remembers this Sprite's current position as the position
+     * at the start of a simulation tick, for
+     * getInterpolatedX() and getInterpolatedY().
+     */
+    public void savePosition() {
+        previousX = x;
+        previousY = y;
+        hasPrevious = true;
+    }
+
+    /**
+     * Gets the x position to draw this Sprite at, between the
+     * position saved with savePosition() and the current
+     * position.
+     * @param alpha  0 for the saved position, 1 for the current
+     * position
+     * @return interpolated x position
+     */
+    public float getInterpolatedX(float alpha) {
+        if (!hasPrevious) {
+            return x;
+        }
+        return previousX + (x - previousX) * alpha;
+    }
+
+    /**
+     * Gets the y position to draw this Sprite at, between the
+     * position saved with savePosition() and the current
+     * position.
+     * @param alpha  0 for the saved position, 1 for the current
+     * position
+     * @return interpolated y position
+     */
+    public float getInterpolatedY(float alpha) {
+        if (!hasPrevious) {
+            return y;
+        }
+        return previousY + (y - previousY) * alpha;
+    }
+
+    /**
+     * Sets the Listener notified when this Sprite moves, or
+     * null for none. A Sprite has at most one Listener.
+     * @param listener  the listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the Listener notified when this Sprite moves.
+     * @return the listener, or <code>null</code> if there is none
+     */
+    public Listener getListener() {
+        return listener;
+    }
+
     /**
      * Gets this Sprite's current image.
      * @return image of Sprite
@@ -138,6 +233,31 @@ public class Sprite {
         return anim.getImage();
     }
 
+    /**
+     * Draws this Sprite's current frame at the specified
+     * location.
+     * @param g  the graphics context
+     * @param x  x position to draw at
+     * @param y  y position to draw at
+     */
+    public void draw(Graphics g, int x, int y) {
+        anim.draw(g, x, y);
+    }
+
+    /**
+     * Puts this Sprite back the way it was when it was created:
+     * not moving, with its Animation at the first frame. The
+     * position and the Listener are not changed. Subclasses
+     * with more state should override this method to reset it
+     * too.
+     */
+    public void reset() {
+        dx = 0;
+        dy = 0;
+        hasPrevious = false;
+        anim.start();
+    }
+
     /**
      * Clones this Sprite. Does not clone position or velocity
      * info.
@@ -146,4 +266,19 @@ public class Sprite {
     public Object clone() {
         return new Sprite(anim);
     }
+
+    /**
+     * A Listener is notified whenever a Sprite's position or
+     * size changes, for example to keep a spatial index up to
+     * date.
+     */
+    public interface Listener {
+
+        /**
+         * Called after the sprite's x or y position, or its
+         * size, changed.
+         * @param sprite  the sprite that moved
+         */
+        public void spriteMoved(Sprite sprite);
+    }
 }
@@ -0,0 +1,161 @@
+package com.brackeen.javagamebook.graphics;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.HashMap;
+
+/**
+ * The TextRenderer class draws text with a single Font, keeping
+ * the laid-out GlyphVectors of static strings (labels) so they
+ * are only laid out once. Numbers are drawn digit by digit from
+ * ten cached GlyphVectors, so changing values like the score
+ * don't create any Strings or layouts while drawing.
+ * <p>The cached layouts are dropped if the FontRenderContext of
+ * the Graphics2D changes (for example, if antialiasing is
+ * turned on).
+ */
+public class TextRenderer {
+
+    private Font font;
+    private FontRenderContext frc;
+    private HashMap<String, GlyphVector> labels;
+    private GlyphVector[] digits;
+    private float[] digitAdvances;
+    private GlyphVector minus;
+    private float minusAdvance;
+    private int[] digitBuffer;
+
+    /**
+     * Creates a new TextRenderer that draws with the specified
+     * Font.
+     * @param font  the font used to draw
+     */
+    public TextRenderer(Font font) {
+        this.font = font;
+        labels = new HashMap<String, GlyphVector>();
+        digitBuffer = new int[20];
+    }
+
+
+    /**
+     * Gets the Font this TextRenderer draws with.
+     * @return the font
+     */
+    public Font getFont() {
+        return font;
+    }
+
+
+    /**
+     * Draws a static string, laying it out only the first time
+     * it is drawn.
+     * @param g  the graphics context
+     * @param s  the string to draw
+     * @param x  x position of the baseline
+     * @param y  y position of the baseline
+     * @return the x position after the string
+     */
+    public float drawString(Graphics2D g, String s, float x, float y) {
+        GlyphVector label = getLabel(g, s);
+        g.drawGlyphVector(label, x, y);
+        return x + getAdvance(label);
+    }
+
+
+    /**
+     * Draws a number using the cached digit layouts.
+     * @param g  the graphics context
+     * @param value  the number to draw
+     * @param x  x position of the baseline
+     * @param y  y position of the baseline
+     * @return the x position after the number
+     */
+    public float drawNumber(Graphics2D g, int value, float x, float y) {
+        validate(g);
+
+        long n = value;
+        if (n < 0) {
+            g.drawGlyphVector(minus, x, y);
+            x += minusAdvance;
+            n = -n;
+        }
+
+        // get the digits, least significant first
+        int count = 0;
+        do {
+            digitBuffer[count++] = (int)(n % 10);
+            n /= 10;
+        }
+        while (n > 0);
+
+        for (int i=count-1; i>=0; i--) {
+            int digit = digitBuffer[i];
+            g.drawGlyphVector(digits[digit], x, y);
+            x += digitAdvances[digit];
+        }
+        return x;
+    }
+
+
+    /**
+     * Gets the width of a static string, laying it out if
+     * needed.
+     * @param g  the graphics context
+     * @param s  the string
+     * @return the width of the string
+     */
+    public float getWidth(Graphics2D g, String s) {
+        return getAdvance(getLabel(g, s));
+    }
+
+
+    /**
+     * Gets the cached layout of a string, creating it if it
+     * hasn't been laid out yet.
+     */
+    private GlyphVector getLabel(Graphics2D g, String s) {
+        validate(g);
+        GlyphVector label = labels.get(s);
+        if (label == null) {
+            label = font.createGlyphVector(frc, s);
+            labels.put(s, label);
+        }
+        return label;
+    }
+
+
+    /**
+     * Drops the cached layouts if the FontRenderContext of the
+     * specified Graphics2D differs from the one they were laid
+     * out with.
+     */
+    private void validate(Graphics2D g) {
+        FontRenderContext current = g.getFontRenderContext();
+        if (frc != null && frc.equals(current)) {
+            return;
+        }
+        frc = current;
+        labels.clear();
+
+        digits = new GlyphVector[10];
+        digitAdvances = new float[10];
+        for (int i=0; i<10; i++) {
+            digits[i] = font.createGlyphVector(frc,
+                String.valueOf((char)('0' + i)));
+            digitAdvances[i] = getAdvance(digits[i]);
+        }
+        minus = font.createGlyphVector(frc, "-");
+        minusAdvance = getAdvance(minus);
+    }
+
+
+    /**
+     * Gets the horizontal advance of a laid-out string.
+     */
+    private static float getAdvance(GlyphVector glyphs) {
+        return (float)glyphs.getGlyphPosition(
+            glyphs.getNumGlyphs()).getX();
+    }
+}
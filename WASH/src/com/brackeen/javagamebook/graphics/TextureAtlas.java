@@ -0,0 +1,222 @@
+package com.brackeen.javagamebook.graphics;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+/**
+ * The TextureAtlas class packs many small images (like the
+ * frames of an Animation) into a few large compatible images,
+ * called pages. Each packed image is represented by a Region,
+ * a rectangle of a page that is drawn with a source-rectangle
+ * drawImage().
+ * <p>Images are packed in rows ("shelves") in the order they
+ * are added, which works well for frames of similar size.
+ */
+public class TextureAtlas {
+
+    private GraphicsConfiguration gc;
+    private int pageWidth;
+    private int pageHeight;
+    private ArrayList<BufferedImage> pages;
+
+    // current packing position in the last page
+    private int shelfX;
+    private int shelfY;
+    private int shelfHeight;
+
+    /**
+     * Creates a new, empty TextureAtlas whose pages are
+     * compatible with the specified GraphicsConfiguration.
+     * @param gc  the graphics configuration
+     * @param pageWidth  the width of each page
+     * @param pageHeight  the height of each page
+     */
+    public TextureAtlas(GraphicsConfiguration gc, int pageWidth,
+        int pageHeight)
+    {
+        this.gc = gc;
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        pages = new ArrayList<BufferedImage>();
+    }
+
+
+    /**
+     * Packs an image into this atlas.
+     * @param image  the image to pack
+     * @return the region of the packed image
+     */
+    public Region add(Image image) {
+        return add(image, false);
+    }
+
+
+    /**
+     * Packs a mirrored (flipped horizontally) copy of an image
+     * into this atlas.
+     * @param image  the image to mirror and pack
+     * @return the region of the packed image
+     */
+    public Region addMirror(Image image) {
+        return add(image, true);
+    }
+
+
+    /**
+     * Gets the number of pages in this atlas.
+     * @return the number of pages
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+
+    /**
+     * Packs an image, optionally mirrored.
+     */
+    private synchronized Region add(Image image, boolean mirror) {
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        if (width > pageWidth || height > pageHeight) {
+            throw new IllegalArgumentException(
+                "Image is larger than an atlas page");
+        }
+
+        // move to the next shelf, or the next page, if needed
+        if (pages.isEmpty()) {
+            addPage();
+        }
+        if (shelfX + width > pageWidth) {
+            shelfX = 0;
+            shelfY += shelfHeight;
+            shelfHeight = 0;
+        }
+        if (shelfY + height > pageHeight) {
+            addPage();
+        }
+
+        BufferedImage page = pages.get(pages.size() - 1);
+        Region region = new Region(page, shelfX, shelfY, width, height);
+
+        // draw the image into the page
+        Graphics2D g = page.createGraphics();
+        if (mirror) {
+            g.drawImage(image, shelfX + width, shelfY,
+                shelfX, shelfY + height,
+                0, 0, width, height, null);
+        }
+        else {
+            g.drawImage(image, shelfX, shelfY, null);
+        }
+        g.dispose();
+
+        shelfX += width;
+        shelfHeight = Math.max(shelfHeight, height);
+        return region;
+    }
+
+
+    /**
+     * Starts a new, empty page.
+     */
+    private void addPage() {
+        pages.add(gc.createCompatibleImage(pageWidth, pageHeight,
+            Transparency.BITMASK));
+        shelfX = 0;
+        shelfY = 0;
+        shelfHeight = 0;
+    }
+
+
+    /**
+     * A Region is a rectangle of an atlas page that holds one
+     * packed image.
+     */
+    public static class Region {
+
+        private Image page;
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+        private Image image;
+
+        /**
+         * Creates a new Region of a page.
+         * @param page  the atlas page
+         * @param x  the x position in the page
+         * @param y  the y position in the page
+         * @param width  the width of the region
+         * @param height  the height of the region
+         */
+        public Region(Image page, int x, int y, int width,
+            int height)
+        {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+
+        /**
+         * Gets the width of this Region.
+         * @return the width
+         */
+        public int getWidth() {
+            return width;
+        }
+
+
+        /**
+         * Gets the height of this Region.
+         * @return the height
+         */
+        public int getHeight() {
+            return height;
+        }
+
+
+        /**
+         * Draws this Region at the specified location.
+         * @param g  the graphics context
+         * @param dx  x position to draw at
+         * @param dy  y position to draw at
+         */
+        public void draw(Graphics g, int dx, int dy) {
+            g.drawImage(page, dx, dy, dx + width, dy + height,
+                x, y, x + width, y + height, null);
+        }
+
+
+        /**
+         * Gets this Region as a standalone Image, for code that
+         * needs an Image. The Image shares the pixels of the
+         * page, but is not accelerated with it, so draw() should
+         * be used for drawing.
+         * @return the image of this region
+         */
+        public synchronized Image getImage() {
+            if (image == null) {
+                if (page instanceof BufferedImage) {
+                    image = ((BufferedImage)page).getSubimage(
+                        x, y, width, height);
+                }
+                else {
+                    image = new BufferedImage(width, height,
+                        BufferedImage.TYPE_INT_ARGB);
+                    Graphics g = image.getGraphics();
+                    draw(g, 0, 0);
+                    g.dispose();
+                }
+            }
+            return image;
+        }
+    }
+}
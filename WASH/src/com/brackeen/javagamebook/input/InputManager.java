@@ -14,13 +14,10 @@ public class InputManager implements KeyListener, MouseListener,
     MouseMotionListener, MouseWheelListener
 {
     /**
-     * An invisible cursor.
+     * An invisible cursor, or null in a headless environment.
      */
     public static final Cursor INVISIBLE_CURSOR =
-        Toolkit.getDefaultToolkit().createCustomCursor(
-            Toolkit.getDefaultToolkit().getImage(""),
-            new Point(0,0),
-            "invisible");
+        createInvisibleCursor();
 
     // mouse codes
     public static final int MOUSE_MOVE_LEFT = 0;
@@ -53,13 +50,18 @@ public class InputManager implements KeyListener, MouseListener,
 
     /**
      * Creates a new InputManager that listens to input from the
-     * specified component.
+     * specified component. If the component is null, the
+     * InputManager only gets input injected with pressKey() and
+     * releaseKey().
      * @param comp  Component received to create the InputManager
      */
     public InputManager(Component comp) {
         this.comp = comp;
         mouseLocation = new Point();
         centerLocation = new Point();
+        if (comp == null) {
+            return;
+        }
 
         // register key and mouse listeners
         comp.addKeyListener(this);
@@ -78,7 +80,53 @@ public class InputManager implements KeyListener, MouseListener,
      * @param cursor  the cursor of the mouse
      */
     public void setCursor(Cursor cursor) {
-        comp.setCursor(cursor);
+        if (comp != null) {
+            comp.setCursor(cursor);
+        }
+    }
+
+
+    /**
+     * Creates the invisible cursor. Returns null in a headless
+     * environment, where there are no cursors.
+     */
+    private static Cursor createInvisibleCursor() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return null;
+        }
+        return Toolkit.getDefaultToolkit().createCustomCursor(
+            Toolkit.getDefaultToolkit().getImage(""),
+            new Point(0,0),
+            "invisible");
+    }
+
+
+    /**
+     * Presses the GameAction mapped to a key, as if the key was
+     * pressed on the keyboard. Used to feed scripted input.
+     * @param keyCode  the key code, from java.awt.KeyEvent
+     */
+    public void pressKey(int keyCode) {
+        if (keyCode >= 0 && keyCode < keyActions.length &&
+            keyActions[keyCode] != null)
+        {
+            keyActions[keyCode].press();
+        }
+    }
+
+
+    /**
+     * Releases the GameAction mapped to a key, as if the key
+     * was released on the keyboard. Used to feed scripted
+     * input.
+     * @param keyCode  the key code, from java.awt.KeyEvent
+     */
+    public void releaseKey(int keyCode) {
+        if (keyCode >= 0 && keyCode < keyActions.length &&
+            keyActions[keyCode] != null)
+        {
+            keyActions[keyCode].release();
+        }
     }
 
 
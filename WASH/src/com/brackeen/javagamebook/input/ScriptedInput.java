@@ -0,0 +1,173 @@
+package com.brackeen.javagamebook.input;
+
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * The ScriptedInput class feeds key presses from a script into
+ * an InputManager, so the game can be played without a
+ * keyboard (for example, in automated tests). The script is
+ * advanced one tick at a time with update().
+ * <p>Each line of a script is a tick number, an action
+ * (<code>press</code> or <code>release</code>), and a key name
+ * from java.awt.KeyEvent without the <code>VK_</code> prefix.
+ * Lines starting with <code>#</code> are comments. For
+ * example:
+ * <pre>
+ * # walk right and jump
+ * 0 press RIGHT
+ * 50 press UP
+ * 51 release UP
+ * 200 release RIGHT
+ * </pre>
+ */
+public class ScriptedInput {
+
+    private InputManager inputManager;
+    private ArrayList<Event> events;
+    private boolean looping;
+    private int length;
+    private int tick;
+    private int next;
+
+    /**
+     * Creates a new ScriptedInput that reads a script and feeds
+     * it to the specified InputManager.
+     * @param inputManager  the input manager to feed
+     * @param script  the script to read
+     * @throws IOException if the script can't be read or has a
+     * bad line
+     */
+    public ScriptedInput(InputManager inputManager, Reader script)
+        throws IOException
+    {
+        this.inputManager = inputManager;
+        events = new ArrayList<Event>();
+
+        BufferedReader reader = new BufferedReader(script);
+        int lineNumber = 0;
+        while (true) {
+            String line = reader.readLine();
+            if (line == null) {
+                reader.close();
+                break;
+            }
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            events.add(parseEvent(line, lineNumber));
+        }
+
+        if (!events.isEmpty()) {
+            length = events.get(events.size() - 1).tick + 1;
+        }
+    }
+
+
+    /**
+     * Sets whether the script starts over after its last tick.
+     * @param looping  true to repeat the script
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+
+    /**
+     * Returns whether every event of the script has been fed
+     * (never true for a looping script).
+     * @return true if the script is finished
+     */
+    public boolean isFinished() {
+        return !looping && next >= events.size();
+    }
+
+
+    /**
+     * Feeds the events of the current tick to the InputManager
+     * and moves to the next tick. Call once per game update.
+     */
+    public void update() {
+        if (events.isEmpty()) {
+            return;
+        }
+        if (looping && tick >= length) {
+            tick = 0;
+            next = 0;
+        }
+        while (next < events.size() && events.get(next).tick <= tick) {
+            Event event = events.get(next++);
+            if (event.press) {
+                inputManager.pressKey(event.keyCode);
+            }
+            else {
+                inputManager.releaseKey(event.keyCode);
+            }
+        }
+        tick++;
+    }
+
+
+    /**
+     * Parses a line of a script.
+     */
+    private Event parseEvent(String line, int lineNumber)
+        throws IOException
+    {
+        String[] parts = line.split("\\s+");
+        if (parts.length != 3) {
+            throw new IOException("Bad script line " + lineNumber +
+                ": " + line);
+        }
+
+        Event event = new Event();
+        try {
+            event.tick = Integer.parseInt(parts[0]);
+            event.keyCode =
+                KeyEvent.class.getField("VK_" + parts[2]).getInt(null);
+        }
+        catch (NumberFormatException ex) {
+            throw new IOException("Bad tick on script line " +
+                lineNumber + ": " + parts[0]);
+        }
+        catch (NoSuchFieldException ex) {
+            throw new IOException("Unknown key on script line " +
+                lineNumber + ": " + parts[2]);
+        }
+        catch (IllegalAccessException ex) {
+            throw new IOException("Unknown key on script line " +
+                lineNumber + ": " + parts[2]);
+        }
+
+        if (parts[1].equals("press")) {
+            event.press = true;
+        }
+        else if (!parts[1].equals("release")) {
+            throw new IOException("Unknown action on script line " +
+                lineNumber + ": " + parts[1]);
+        }
+
+        if (!events.isEmpty() &&
+            event.tick < events.get(events.size() - 1).tick)
+        {
+            throw new IOException("Script line " + lineNumber +
+                " is out of order");
+        }
+        return event;
+    }
+
+
+    /**
+     * A key press or release at a tick.
+     */
+    private static class Event {
+        int tick;
+        int keyCode;
+        boolean press;
+    }
+}
@@ -0,0 +1,291 @@
+package com.brackeen.javagamebook.sound;
+
+import java.io.PrintStream;
+
+/**
+ * The AudioMetrics class collects playback metrics of a
+ * SoundManager, to diagnose lag and dropouts:<ul>
+ * <li>start latency: the time from play() to the first samples
+ *    of the sound being written to the line
+ * <li>line low-water mark: the fewest bytes left queued in the
+ *    line before the mixer wrote the next buffer
+ * <li>underruns: the times the line ran dry before the mixer
+ *    wrote the next buffer
+ * <li>bytes mixed per second, and sounds dropped or stolen
+ * </ul>
+ * <p>The mixer's thread records the metrics; the game can poll
+ * them from any thread, or dump() them all. Line metrics are
+ * only recorded when a line is open (not with the null sink).
+ */
+public class AudioMetrics {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private long startTime;
+    private long buffersMixed;
+    private long bytesMixed;
+    private long windowStart;
+    private long windowBytes;
+    private float bytesPerSecond;
+    private int underruns;
+    private int lineBufferSize;
+    private int lineLowWater;
+    private int startCount;
+    private long totalStartLatency;
+    private long maxStartLatency;
+    private long lastStartLatency;
+    private int droppedCount;
+    private int stolenCount;
+
+    /**
+     * Creates a new AudioMetrics with every metric cleared.
+     */
+    public AudioMetrics() {
+        reset();
+    }
+
+
+    /**
+     * Clears every metric.
+     */
+    public synchronized void reset() {
+        startTime = System.nanoTime();
+        windowStart = startTime;
+        buffersMixed = 0;
+        bytesMixed = 0;
+        windowBytes = 0;
+        bytesPerSecond = 0;
+        underruns = 0;
+        lineLowWater = -1;
+        startCount = 0;
+        totalStartLatency = 0;
+        maxStartLatency = -1;
+        lastStartLatency = -1;
+        droppedCount = 0;
+        stolenCount = 0;
+    }
+
+
+    /**
+     * Records a mixed buffer written to the line (or the null
+     * sink).
+     */
+    synchronized void bufferMixed(int numBytes, long now) {
+        buffersMixed++;
+        bytesMixed += numBytes;
+        windowBytes += numBytes;
+
+        // the rate is measured over windows of about a second
+        long elapsed = now - windowStart;
+        if (elapsed >= NANOS_PER_SECOND) {
+            bytesPerSecond = (float)windowBytes * NANOS_PER_SECOND /
+                elapsed;
+            windowBytes = 0;
+            windowStart = now;
+        }
+    }
+
+
+    /**
+     * Records the state of the line just before a buffer is
+     * written to it.
+     * @param available  the line's available() bytes
+     * @param bufferSize  the line's buffer size
+     * @param started  false if nothing was written to the line
+     * yet, so an empty line isn't an underrun
+     */
+    synchronized void lineChecked(int available, int bufferSize,
+        boolean started)
+    {
+        lineBufferSize = bufferSize;
+        int queued = Math.max(0, bufferSize - available);
+        if (lineLowWater < 0 || queued < lineLowWater) {
+            lineLowWater = queued;
+        }
+        if (started && queued == 0) {
+            underruns++;
+        }
+    }
+
+
+    /**
+     * Records the start latency of a sound.
+     */
+    synchronized void voiceStarted(long latency) {
+        startCount++;
+        totalStartLatency += latency;
+        maxStartLatency = Math.max(maxStartLatency, latency);
+        lastStartLatency = latency;
+    }
+
+
+    /**
+     * Records a sound that was dropped because no voice was
+     * free.
+     */
+    synchronized void voiceDropped() {
+        droppedCount++;
+    }
+
+
+    /**
+     * Records a voice stopped to play a sound with a higher
+     * priority.
+     */
+    synchronized void voiceStolen() {
+        stolenCount++;
+    }
+
+
+    /**
+     * Gets the number of buffers mixed.
+     * @return the number of buffers
+     */
+    public synchronized long getBuffersMixed() {
+        return buffersMixed;
+    }
+
+
+    /**
+     * Gets the number of bytes mixed.
+     * @return the number of bytes
+     */
+    public synchronized long getBytesMixed() {
+        return bytesMixed;
+    }
+
+
+    /**
+     * Gets the number of bytes mixed per second, measured over
+     * the last second or so. At normal speed this is the byte
+     * rate of the playback format.
+     * @return the bytes per second
+     */
+    public synchronized float getBytesMixedPerSecond() {
+        return bytesPerSecond;
+    }
+
+
+    /**
+     * Gets the number of times the line ran dry.
+     * @return the number of underruns
+     */
+    public synchronized int getUnderrunCount() {
+        return underruns;
+    }
+
+
+    /**
+     * Gets the size of the line's buffer.
+     * @return the size, in bytes, or 0 if no line is open
+     */
+    public synchronized int getLineBufferSize() {
+        return lineBufferSize;
+    }
+
+
+    /**
+     * Gets the fewest bytes left queued in the line before a
+     * buffer was written: the line's buffer size minus the most
+     * bytes available().
+     * @return the low-water mark, in bytes, or -1 if no line is
+     * open
+     */
+    public synchronized int getLineLowWater() {
+        return lineLowWater;
+    }
+
+
+    /**
+     * Gets the number of sounds that have started playing.
+     * @return the number of sounds
+     */
+    public synchronized int getStartCount() {
+        return startCount;
+    }
+
+
+    /**
+     * Gets the average start latency of sounds.
+     * @return the latency, in nanoseconds, or -1 if no sound
+     * has started
+     */
+    public synchronized long getAverageStartLatency() {
+        return (startCount == 0) ? -1 : totalStartLatency / startCount;
+    }
+
+
+    /**
+     * Gets the longest start latency of sounds.
+     * @return the latency, in nanoseconds, or -1 if no sound
+     * has started
+     */
+    public synchronized long getMaxStartLatency() {
+        return maxStartLatency;
+    }
+
+
+    /**
+     * Gets the start latency of the last sound to start.
+     * @return the latency, in nanoseconds, or -1 if no sound
+     * has started
+     */
+    public synchronized long getLastStartLatency() {
+        return lastStartLatency;
+    }
+
+
+    /**
+     * Gets the number of sounds dropped because every voice was
+     * playing a sound of the same or higher priority.
+     * @return the number of dropped sounds
+     */
+    public synchronized int getDroppedCount() {
+        return droppedCount;
+    }
+
+
+    /**
+     * Gets the number of voices stopped to play a sound with a
+     * higher priority.
+     * @return the number of stolen voices
+     */
+    public synchronized int getStolenCount() {
+        return stolenCount;
+    }
+
+
+    /**
+     * Prints every metric.
+     * @param out  the stream to print to
+     */
+    public synchronized void dump(PrintStream out) {
+        long elapsed = System.nanoTime() - startTime;
+        out.println("audio: " + buffersMixed + " buffers, " +
+            bytesMixed + " bytes mixed in " +
+            (elapsed / 1000000) + " ms (" +
+            Math.round(bytesPerSecond) + " bytes/sec)");
+        if (lineLowWater >= 0) {
+            out.println("audio: line " + lineBufferSize +
+                " bytes, low water " + lineLowWater + " bytes, " +
+                underruns + " underruns");
+        }
+        else {
+            out.println("audio: no line");
+        }
+        out.println("audio: " + startCount + " sounds started, " +
+            "latency avg " + toMillis(getAverageStartLatency()) +
+            " ms, max " + toMillis(maxStartLatency) + " ms, last " +
+            toMillis(lastStartLatency) + " ms");
+        out.println("audio: " + droppedCount + " sounds dropped, " +
+            stolenCount + " voices stolen");
+    }
+
+
+    private static String toMillis(long nanos) {
+        if (nanos < 0) {
+            return "-";
+        }
+        return String.valueOf(Math.round(nanos / 10000.0) / 100.0);
+    }
+}
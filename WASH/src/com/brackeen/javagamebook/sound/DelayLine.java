@@ -0,0 +1,109 @@
+package com.brackeen.javagamebook.sound;
+
+import java.util.Arrays;
+
+/**
+ * The DelayLine class is a ring buffer of samples that delays a
+ * sound by a fixed number of samples. It is used by filters like
+ * EchoFilter and ReverbFilter.
+ * <p>Samples are processed in blocks: each block is split, at
+ * most once, where the ring wraps, and each contiguous run is
+ * handled by a tight loop (or System.arraycopy).
+ */
+public class DelayLine {
+
+    private short[] buffer;
+    private int position;
+
+    /**
+     * Creates a new, silent DelayLine that delays by the
+     * specified number of samples.
+     * @param length  the delay, in samples
+     */
+    public DelayLine(int length) {
+        buffer = new short[length];
+    }
+
+
+    /**
+     * Gets the delay of this DelayLine.
+     * @return the delay, in samples
+     */
+    public int getLength() {
+        return buffer.length;
+    }
+
+
+    /**
+     * Silences this DelayLine.
+     */
+    public void reset() {
+        Arrays.fill(buffer, (short)0);
+        position = 0;
+    }
+
+
+    /**
+     * Copies the next delayed samples, without moving ahead. The
+     * number of samples can't be more than the delay.
+     * @param dest  the array to copy to
+     * @param offset  where to put the first sample
+     * @param length  the number of samples
+     */
+    public void read(short[] dest, int offset, int length) {
+        int run = Math.min(length, buffer.length - position);
+        System.arraycopy(buffer, position, dest, offset, run);
+        System.arraycopy(buffer, 0, dest, offset + run, length - run);
+    }
+
+
+    /**
+     * Stores samples in place of the next delayed samples, and
+     * moves ahead. The number of samples can't be more than the
+     * delay.
+     * @param src  the samples to store
+     * @param offset  where the first sample is
+     * @param length  the number of samples
+     */
+    public void write(short[] src, int offset, int length) {
+        int run = Math.min(length, buffer.length - position);
+        System.arraycopy(src, offset, buffer, position, run);
+        System.arraycopy(src, offset + run, buffer, 0, length - run);
+        position = (position + length) % buffer.length;
+    }
+
+
+    /**
+     * Adds an echo to samples: each sample has the delayed
+     * sample, multiplied by the decay, added to it, and the
+     * result is stored in the delay line, so multiple echoes are
+     * heard.
+     * @param samples  the sound samples
+     * @param offset  where the sound samples begin
+     * @param length  the number of samples
+     * @param decay  the decay of each echo
+     */
+    public void echo(short[] samples, int offset, int length,
+        float decay)
+    {
+        int end = offset + length;
+        while (offset < end) {
+            // filter up to the end of the ring at a time, so the
+            // inner loop doesn't wrap
+            int count = Math.min(end - offset,
+                buffer.length - position);
+            for (int i=0; i<count; i++) {
+                short newSample = (short)(samples[offset + i] +
+                    decay * buffer[position + i]);
+                samples[offset + i] = newSample;
+                buffer[position + i] = newSample;
+            }
+
+            offset += count;
+            position += count;
+            if (position == buffer.length) {
+                position = 0;
+            }
+        }
+    }
+}
@@ -4,10 +4,9 @@ package com.brackeen.javagamebook.sound;
  * The EchoFilter class is a SoundFilter that emulates an echo.
  * @see FilteredSoundStream
  */
-public class EchoFilter extends SoundFilter {
+public class EchoFilter extends ShortSoundFilter {
 
-    private short[] delayBuffer;
-    private int delayBufferPos;
+    private DelayLine delayLine;
     private float decay;
 
     /**
@@ -15,7 +14,9 @@ public class EchoFilter extends SoundFilter {
      * samples and the specified decay rate.
      * <p>The number of delay samples specifies how long before
      * the echo is initially heard. For a 1 second echo with
-     * mono, 44100Hz sound, use 44100 delay samples.
+     * mono, 44100Hz sound, use 44100 delay samples. Stereo
+     * samples are interleaved, so use twice as many; the number
+     * should be even to keep the channels apart.
      * <p>The decay value is how much the echo has decayed from
      * the source. A decay value of .5 means the echo heard is
      * half as loud as the source.
@@ -23,7 +24,7 @@ public class EchoFilter extends SoundFilter {
      * @param decay  the specified decay rate
      */
     public EchoFilter(int numDelaySamples, float decay) {
-        delayBuffer = new short[numDelaySamples];
+        delayLine = new DelayLine(numDelaySamples);
         this.decay = decay;
     }
 
@@ -40,7 +41,7 @@ public class EchoFilter extends SoundFilter {
         // derived from Math.pow(decay,x) <= finalDecay
         int numRemainingBuffers = (int)Math.ceil(
             Math.log(finalDecay) / Math.log(decay));
-        int bufferSize = delayBuffer.length * 2;
+        int bufferSize = delayLine.getLength() * 2;
 
         return bufferSize * numRemainingBuffers;
     }
@@ -50,10 +51,7 @@ public class EchoFilter extends SoundFilter {
      * Clears this EchoFilter's internal delay buffer.
      */
     public void reset() {
-        for (int i=0; i<delayBuffer.length; i++) {
-            delayBuffer[i] = 0;
-        }
-        delayBufferPos = 0;
+        delayLine.reset();
     }
 
 
@@ -64,24 +62,10 @@ public class EchoFilter extends SoundFilter {
      * the delay buffer, so multiple echoes are heard.
      * @param samples  the sound samples
      * @param offset  where the sound samples begin
-     * @param length  the amount of sound samples
+     * @param length  the number of samples
      */
-    public void filter(byte[] samples, int offset, int length) {
-
-        for (int i=offset; i<offset+length; i+=2) {
-            // update the sample
-            short oldSample = getSample(samples, i);
-            short newSample = (short)(oldSample + decay *
-                delayBuffer[delayBufferPos]);
-            setSample(samples, i, newSample);
-
-            // update the delay buffer
-            delayBuffer[delayBufferPos] = newSample;
-            delayBufferPos++;
-            if (delayBufferPos == delayBuffer.length) {
-                delayBufferPos = 0;
-            }
-        }
+    public void filter(short[] samples, int offset, int length) {
+        delayLine.echo(samples, offset, length, decay);
     }
 
 }
@@ -5,26 +5,41 @@ import com.brackeen.javagamebook.graphics.Sprite;
 /**
  * The Filter3d class is a SoundFilter that creates a 3d sound
  * effect. The sound is filtered so that it is quiter the farther
- * away the sound source is from the listener.
+ * away the sound source is from the listener. In stereo, the
+ * sound is also panned to the left or right speaker, depending
+ * on where the source is.
+ * <p>The volume is looked up in a table by the squared distance,
+ * and the left and right gains are computed once per buffer.
+ * When they change, the samples ramp linearly from the old gains
+ * to the new ones over NUM_SHIFTING_FRAMES frames, so the change
+ * doesn't click. A buffer shorter than that ends part of the way
+ * there, and the next buffer carries on from the gain reached.
  * <p>Possible ideas to extend this class:
- * <ul><li>pan the sound to the left and right speakers
+ * <ul><li>delay the far speaker a little (interaural delay)
  * </ul>
  * @see FilteredSoundStream
  */
-public class Filter3d extends SoundFilter {
+public class Filter3d extends ShortSoundFilter {
 
-    // number of samples to shift when changing the volume.
-    private static final int NUM_SHIFTING_SAMPLES = 500;
+    // number of frames to shift when changing the volume.
+    private static final int NUM_SHIFTING_FRAMES = 500;
+
+    // number of entries in the distance table
+    private static final int DISTANCE_TABLE_SIZE = 1024;
 
     private Sprite source;
     private Sprite listener;
     private int maxDistance;
-    private float lastVolume;
+    private int channels;
+    private float[] distanceTable;
+    private float distanceScale;
+    private float lastLeft;
+    private float lastRight;
 
     /**
-     * Creates a new Filter3d object with the specified source
-     * and listener Sprites. The Sprite's position can be
-     * changed while this filter is running.
+     * Creates a new Filter3d object for mono sound with the
+     * specified source and listener Sprites. The Sprite's
+     * position can be changed while this filter is running.
      * @param source  the specified source
      * @param listener  the specified listener Sprites
      * @param maxDistance  the maximum distance that the sound can be heard
@@ -32,21 +47,55 @@ public class Filter3d extends SoundFilter {
     public Filter3d(Sprite source, Sprite listener,
         int maxDistance)
     {
+        this(source, listener, maxDistance, 1);
+    }
+
+
+    /**
+     * Creates a new Filter3d object with the specified source
+     * and listener Sprites, for sound with the specified number
+     * of channels. Stereo sound (2 channels) is panned with
+     * equal power, from the source's horizontal position
+     * relative to the listener.
+     * @param source  the specified source
+     * @param listener  the specified listener Sprites
+     * @param maxDistance  the maximum distance that the sound can be heard
+     * @param channels  1 for mono or 2 for stereo
+     */
+    public Filter3d(Sprite source, Sprite listener,
+        int maxDistance, int channels)
+    {
+        if (channels != 1 && channels != 2) {
+            throw new IllegalArgumentException(
+                "Only mono or stereo sound can be filtered");
+        }
         this.source = source;
         this.listener = listener;
         this.maxDistance = maxDistance;
-        this.lastVolume = 0.0f;
+        this.channels = channels;
+        this.lastLeft = 0.0f;
+        this.lastRight = 0.0f;
+
+        // volume from 1 (no distance) to 0 (maxDistance),
+        // indexed by the squared distance
+        distanceTable = new float[DISTANCE_TABLE_SIZE];
+        distanceScale = (DISTANCE_TABLE_SIZE - 1) /
+            ((float)maxDistance * maxDistance);
+        for (int i=0; i<DISTANCE_TABLE_SIZE; i++) {
+            float distance = (float)Math.sqrt(i / distanceScale);
+            distanceTable[i] = (maxDistance - distance) / maxDistance;
+        }
     }
 
 
     /**
      * Filters the sound so that it gets more quiet with
-     * distance.
+     * distance, and pans it if it's in stereo.
      * @param samples  the sound samples
      * @param offset  where the sound samples begin
-     * @param length  the amount of sound samples
+     * @param length  the number of samples
      */
-    public void filter(byte[] samples, int offset, int length) {
+    public void filter(short[] samples, int offset, int length) {
 
         if (source == null || listener == null) {
             // nothing to filter - return
@@ -56,34 +105,94 @@ public class Filter3d extends SoundFilter {
         // calculate the listener's distance from the sound source
         float dx = (source.getX() - listener.getX());
         float dy = (source.getY() - listener.getY());
-        float distance = (float)Math.sqrt(dx * dx + dy * dy);
+        float volume = getVolume(dx * dx + dy * dy);
+
+        if (channels == 1) {
+            filterMono(samples, offset, length, volume);
+        }
+        else {
+            // equal-power pan, from -1 (left) to 1 (right)
+            float pan = Math.max(-1, Math.min(1, dx / maxDistance));
+            double angle = (pan + 1) * Math.PI / 4;
+            float left = volume * (float)Math.cos(angle);
+            float right = volume * (float)Math.sin(angle);
+            filterStereo(samples, offset, length, left, right);
+        }
+    }
+
 
-        // set volume from 0 (no sound) to 1
-        float newVolume = (maxDistance - distance) / maxDistance;
-        if (newVolume <= 0) {
-            newVolume = 0;
+    /**
+     * Gets the volume, from 0 (no sound) to 1, of a source at
+     * the specified squared distance.
+     */
+    private float getVolume(float distanceSquared) {
+        int index = (int)(distanceSquared * distanceScale);
+        if (index >= DISTANCE_TABLE_SIZE) {
+            return 0;
         }
+        return distanceTable[index];
+    }
 
-        // set the volume of the sample
-        int shift = 0;
-        for (int i=offset; i<offset+length; i+=2) {
 
-            float volume = newVolume;
+    private void filterMono(short[] samples, int offset,
+        int length, float volume)
+    {
+        // shift from the last volume to the new volume
+        int shift = Math.min(length, NUM_SHIFTING_FRAMES);
+        float step = (volume - lastLeft) / NUM_SHIFTING_FRAMES;
+        float gain = lastLeft;
+        for (int i=0; i<shift; i++) {
+            samples[offset + i] = (short)(samples[offset + i] * gain);
+            gain += step;
+        }
 
-            // shift from the last volume to the new volume
-            if (shift < NUM_SHIFTING_SAMPLES) {
-                volume = lastVolume + (newVolume - lastVolume) *
-                    shift / NUM_SHIFTING_SAMPLES;
-                shift++;
-            }
+        // set the volume of the rest of the samples
+        for (int i=shift; i<length; i++) {
+            samples[offset + i] = (short)(samples[offset + i] *
+                volume);
+        }
 
-            // change the volume of the sample
-            short oldSample = getSample(samples, i);
-            short newSample = (short)(oldSample * volume);
-            setSample(samples, i, newSample);
+        // remember the volume reached
+        lastLeft = (shift < NUM_SHIFTING_FRAMES) ?
+            lastLeft + step * shift : volume;
+    }
+
+
+    private void filterStereo(short[] samples, int offset,
+        int length, float left, float right)
+    {
+        int frames = length / 2;
+
+        // shift from the last gains to the new gains
+        int shift = Math.min(frames, NUM_SHIFTING_FRAMES);
+        float leftStep = (left - lastLeft) / NUM_SHIFTING_FRAMES;
+        float rightStep = (right - lastRight) / NUM_SHIFTING_FRAMES;
+        float leftGain = lastLeft;
+        float rightGain = lastRight;
+        for (int i=0; i<shift; i++) {
+            int j = offset + 2*i;
+            samples[j] = (short)(samples[j] * leftGain);
+            samples[j+1] = (short)(samples[j+1] * rightGain);
+            leftGain += leftStep;
+            rightGain += rightStep;
         }
 
-        lastVolume = newVolume;
+        // set the gains of the rest of the frames
+        for (int i=shift; i<frames; i++) {
+            int j = offset + 2*i;
+            samples[j] = (short)(samples[j] * left);
+            samples[j+1] = (short)(samples[j+1] * right);
+        }
+
+        // remember the gains reached
+        if (shift < NUM_SHIFTING_FRAMES) {
+            lastLeft += leftStep * shift;
+            lastRight += rightStep * shift;
+        }
+        else {
+            lastLeft = left;
+            lastRight = right;
+        }
     }
 
 }
@@ -6,7 +6,7 @@ package com.brackeen.javagamebook.sound;
  * <p>This class wasn't listed in the book ;)
  * @see FilteredSoundStream
  */
-public class FilterSequence extends SoundFilter {
+public class FilterSequence extends ShortSoundFilter {
 
     private SoundFilter[] filters;
 
@@ -47,12 +47,14 @@ public class FilterSequence extends SoundFilter {
 
     /**
      * Filters the sound simple through each SoundFilter in this
-     * FilterSequence.
+     * FilterSequence. The samples are decoded once for the whole
+     * sequence; SoundFilters that only filter bytes encode and
+     * decode them again.
      * @param samples  the sound samples
      * @param offset  where the sound samples begin
-     * @param length  the amount of sound samples 
+     * @param length  the number of samples
      */
-    public void filter(byte[] samples, int offset, int length) {
+    public void filter(short[] samples, int offset, int length) {
         for (int i=0; i<filters.length; i++) {
             filters[i].filter(samples, offset, length);
         }
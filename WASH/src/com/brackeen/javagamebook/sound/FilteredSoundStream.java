@@ -3,10 +3,15 @@ package com.brackeen.javagamebook.sound;
 import java.io.FilterInputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * The FilteredSoundStream class is a FilterInputStream that
  * applies a SoundFilter to the underlying input stream.
+ * <p>If the filter is a ShortSoundFilter, each buffer read is
+ * decoded once, filtered as shorts, and encoded once. Decoded,
+ * filtered samples can also be read directly with
+ * read(short[], int, int).
  * @see SoundFilter
  */
 public class FilteredSoundStream extends FilterInputStream {
@@ -15,6 +20,8 @@ public class FilteredSoundStream extends FilterInputStream {
 
     private SoundFilter soundFilter;
     private int remainingSize;
+    private byte[] byteBuffer;
+    private short[] shortBuffer;
 
     /**
      * Creates a new FilteredSoundStream object with the
@@ -43,6 +50,21 @@ public class FilteredSoundStream extends FilterInputStream {
     public int read(byte[] samples, int offset, int length)
         throws IOException
     {
+        if (soundFilter instanceof ShortSoundFilter && length >= 2) {
+            // decode, filter, and encode the whole buffer once
+            int numSamples = length / 2;
+            if (shortBuffer == null || shortBuffer.length < numSamples) {
+                shortBuffer = new short[numSamples];
+            }
+            int samplesRead = read(shortBuffer, 0, numSamples);
+            if (samplesRead == -1) {
+                return -1;
+            }
+            SoundFilter.encode(shortBuffer, 0, samples, offset,
+                samplesRead);
+            return samplesRead * 2;
+        }
+
         // read and filter the sound samples in the stream
         int bytesRead = super.read(samples, offset, length);
         if (bytesRead > 0) {
@@ -52,15 +74,8 @@ public class FilteredSoundStream extends FilterInputStream {
 
         // if there are no remaining bytes in the sound stream,
         // check if the filter has any remaining bytes ("echoes").
-        if (remainingSize == REMAINING_SIZE_UNKNOWN) {
-            remainingSize = soundFilter.getRemainingSize();
-            // round down to nearest multiple of 4
-            // (typical frame size)
-            remainingSize = remainingSize / 4 * 4;
-        }
-        if (remainingSize > 0) {
-            length = Math.min(length, remainingSize);
-
+        length = Math.min(length, getRemainingSize());
+        if (length > 0) {
             // clear the buffer
             for (int i=offset; i<offset+length; i++) {
                 samples[i] = 0;
@@ -79,4 +94,74 @@ public class FilteredSoundStream extends FilterInputStream {
         }
     }
 
+
+    /**
+     * Reads and filters decoded samples. The underlying stream
+     * is read in 16-bit, signed, little-endian format.
+     * @param samples  the buffer for the samples
+     * @param offset  where to put the first sample
+     * @param length  the maximum number of samples to read
+     * @return the number of samples read, or -1 at the end of
+     * the stream
+     * @throws IOException 
+     */
+    public int read(short[] samples, int offset, int length)
+        throws IOException
+    {
+        if (length == 0) {
+            return 0;
+        }
+
+        // read whole samples from the sound stream
+        if (byteBuffer == null || byteBuffer.length < length * 2) {
+            byteBuffer = new byte[length * 2];
+        }
+        int bytesRead = in.read(byteBuffer, 0, length * 2);
+        if (bytesRead > 0 && bytesRead % 2 != 0) {
+            int b = in.read();
+            if (b == -1) {
+                bytesRead--;
+            }
+            else {
+                byteBuffer[bytesRead++] = (byte)b;
+            }
+        }
+        if (bytesRead > 0) {
+            int numSamples = bytesRead / 2;
+            SoundFilter.decode(byteBuffer, 0, samples, offset,
+                numSamples);
+            soundFilter.filter(samples, offset, numSamples);
+            return numSamples;
+        }
+
+        // filter the remaining samples ("echoes")
+        int numSamples = Math.min(length, getRemainingSize() / 2);
+        if (numSamples > 0) {
+            Arrays.fill(samples, offset, offset + numSamples,
+                (short)0);
+            soundFilter.filter(samples, offset, numSamples);
+            remainingSize-=numSamples * 2;
+            return numSamples;
+        }
+        else {
+            // end of stream
+            return -1;
+        }
+    }
+
+
+    /**
+     * Gets the number of bytes the filter has left to play
+     * after the underlying stream ends.
+     */
+    private int getRemainingSize() {
+        if (remainingSize == REMAINING_SIZE_UNKNOWN) {
+            remainingSize = soundFilter.getRemainingSize();
+            // round down to nearest multiple of 4
+            // (typical frame size)
+            remainingSize = remainingSize / 4 * 4;
+        }
+        return remainingSize;
+    }
+
 }
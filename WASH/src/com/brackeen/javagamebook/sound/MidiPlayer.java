@@ -20,6 +20,11 @@ public class MidiPlayer implements MetaEventListener {
      * Creates a new MidiPlayer object.
      */
     public MidiPlayer() {
+        if (SoundManager.isNullSink()) {
+            // play nothing
+            sequencer = null;
+            return;
+        }
         try {
             sequencer = MidiSystem.getSequencer();
             sequencer.open();
@@ -0,0 +1,686 @@
+package com.brackeen.javagamebook.sound;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.zip.CRC32;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * The MidiRenderer class renders MIDI sequences to PCM samples
+ * offline, so music can be played through the SoundManager's
+ * mixer instead of a live Sequencer. A sequence can be rendered
+ * with some of its tracks muted, making a "stem" for each
+ * combination of muted tracks.
+ * <p>The Java Sound software synthesizer is used if it can
+ * render to a stream (on newer JDKs this needs
+ * --add-opens java.desktop/com.sun.media.sound=ALL-UNNAMED,
+ * which the game's manifest and run arguments set).
+ * Otherwise a simple built-in synthesizer is used: square waves
+ * for notes, and noise for drums (MIDI channel 10).
+ * <p>Rendered stems are cached as WAV files in a "music-cache"
+ * directory next to the game's jar (or classes directory), so
+ * each stem is only rendered once. If that directory can't be
+ * written (like when the game is installed read-only), the
+ * stems are cached in the user's home directory or the
+ * temporary directory instead, and if they can't be cached at
+ * all they are kept in memory. The name of a cached stem
+ * includes the synthesizer that rendered it, so stems rendered
+ * by the built-in synthesizer aren't used once the Java Sound
+ * synthesizer is available.
+ */
+public class MidiRenderer {
+
+    // MIDI meta event that sets the tempo
+    private static final int TEMPO_MESSAGE = 0x51;
+
+    // microseconds per quarter note if no tempo is set
+    private static final int DEFAULT_TEMPO = 500000;
+
+    // MIDI channel of drums (channel 10, counting from 1)
+    private static final int DRUM_CHANNEL = 9;
+
+    // name of the cache directory
+    private static final String CACHE_DIRECTORY = "music-cache";
+
+    // directory of the cache in the user's home directory
+    private static final String HOME_CACHE_DIRECTORY =
+        ".wash" + File.separator + CACHE_DIRECTORY;
+
+    // names of the synthesizers, used in the names of cached
+    // stems
+    private static final String SYNTHESIZER_RENDERER = "gervill";
+    private static final String SIMPLE_RENDERER = "simple";
+
+    // change when rendering changes, so old stems aren't used
+    private static final int RENDERER_VERSION = 1;
+
+    // whether the fallback to the built-in synthesizer was logged
+    private static boolean fallbackLogged;
+
+    private AudioFormat format;
+
+    /**
+     * Creates a new MidiRenderer that renders to the specified
+     * format, which must be 16-bit, signed, little-endian PCM.
+     * @param format  the format to render to
+     */
+    public MidiRenderer(AudioFormat format) {
+        this.format = format;
+    }
+
+
+    /**
+     * Gets a stem of a MIDI file: the file rendered with the
+     * specified tracks muted, as a WAV file in this renderer's
+     * format. The stem is rendered only if it isn't in the
+     * cache. If it can't be written to the cache, the rendered
+     * WAV file is kept in memory. Returns null if the MIDI file
+     * can't be read.
+     * @param filename  the resource name of the MIDI file
+     * @param mutedTracks  the indexes of the tracks to mute
+     * @return the WAV file of the stem, mapped from the cache or
+     * in memory
+     */
+    public ByteBuffer getStem(String filename, int[] mutedTracks) {
+        try {
+            URL url = MidiRenderer.class.getResource(filename);
+            if (url == null) {
+                throw new FileNotFoundException(filename);
+            }
+            byte[] midi = readFully(url.openStream());
+
+            // the cached file is named by everything it depends on
+            CRC32 crc = new CRC32();
+            crc.update(midi);
+            String name = new File(filename).getName();
+            int dot = name.lastIndexOf('.');
+            if (dot > 0) {
+                name = name.substring(0, dot);
+            }
+            int[] muted = mutedTracks.clone();
+            Arrays.sort(muted);
+            StringBuilder key = new StringBuilder(name);
+            key.append('-').append(Long.toHexString(crc.getValue()));
+            key.append('-').append((int)format.getSampleRate());
+            key.append('-').append(format.getChannels());
+            for (int i=0; i<muted.length; i++) {
+                key.append("-m").append(muted[i]);
+            }
+            boolean useSynthesizer = isSynthesizerAvailable();
+            String stemName = getStemName(key, useSynthesizer);
+            File[] directories = getCacheDirectories();
+            for (int i=0; i<directories.length; i++) {
+                File stem = new File(directories[i], stemName);
+                if (stem.isFile()) {
+                    try {
+                        return map(stem);
+                    }
+                    catch (IOException ex) {
+                        // render it again
+                        ex.printStackTrace();
+                    }
+                }
+            }
+
+            Sequence sequence = MidiSystem.getSequence(
+                new ByteArrayInputStream(midi));
+            ArrayList<TimedMessage> messages =
+                getMessages(sequence, muted);
+            int frames = getFrames(sequence);
+            byte[] samples = null;
+            if (useSynthesizer) {
+                samples = renderWithSynthesizer(messages, frames);
+            }
+            if (samples == null) {
+                samples = renderSimple(messages, frames);
+                stemName = getStemName(key, false);
+            }
+            byte[] wav = toWav(samples);
+            cache(wav, stemName, directories);
+            return ByteBuffer.wrap(wav);
+        }
+        catch (InvalidMidiDataException ex) {
+            ex.printStackTrace();
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+
+    /**
+     * Renders a sequence to samples in this renderer's format.
+     * The notes of the muted tracks aren't played.
+     * @param sequence  the sequence to render
+     * @param mutedTracks  the indexes of the tracks to mute
+     * @return the rendered samples
+     */
+    public byte[] render(Sequence sequence, int[] mutedTracks) {
+        ArrayList<TimedMessage> messages =
+            getMessages(sequence, mutedTracks);
+        int frames = getFrames(sequence);
+
+        byte[] samples = null;
+        if (isSynthesizerAvailable()) {
+            samples = renderWithSynthesizer(messages, frames);
+        }
+        if (samples == null) {
+            samples = renderSimple(messages, frames);
+        }
+        return samples;
+    }
+
+
+    /**
+     * Gets the name of the file a stem is cached in, named by its
+     * key and the synthesizer that renders it.
+     */
+    private static String getStemName(CharSequence key,
+        boolean synthesizer)
+    {
+        String renderer = synthesizer ?
+            SYNTHESIZER_RENDERER : SIMPLE_RENDERER;
+        return key + "-" + renderer + "-v" + RENDERER_VERSION + ".wav";
+    }
+
+
+    /**
+     * Gets the length of a sequence, in frames of this
+     * renderer's format.
+     */
+    private int getFrames(Sequence sequence) {
+        long length = sequence.getMicrosecondLength();
+        return (int)(length * (long)format.getSampleRate() /
+            1000000L);
+    }
+
+
+    /**
+     * Checks if the Java Sound software synthesizer can render
+     * to a stream. If it can't, the reason is logged (once).
+     * @return true if the synthesizer can be used
+     */
+    public static boolean isSynthesizerAvailable() {
+        try {
+            getOpenStreamMethod(MidiSystem.getSynthesizer());
+            return true;
+        }
+        catch (Exception ex) {
+            logFallback(ex);
+            return false;
+        }
+    }
+
+
+    /**
+     * Gets the openStream() method of a synthesizer. It isn't
+     * public API, so it's found by reflection, and can only be
+     * used if its package is opened to the game.
+     */
+    private static Method getOpenStreamMethod(Synthesizer synthesizer)
+        throws Exception
+    {
+        Class<?> audioSynthesizer = Class.forName(
+            "com.sun.media.sound.AudioSynthesizer");
+        if (!audioSynthesizer.isInstance(synthesizer)) {
+            throw new ClassCastException(synthesizer.getClass() +
+                " isn't an AudioSynthesizer");
+        }
+        Method openStream = audioSynthesizer.getMethod(
+            "openStream", AudioFormat.class, Map.class);
+        // throws a RuntimeException on newer JDKs if the package
+        // isn't opened
+        openStream.setAccessible(true);
+        return openStream;
+    }
+
+
+    private static synchronized void logFallback(Exception ex) {
+        if (!fallbackLogged) {
+            fallbackLogged = true;
+            System.err.println("MidiRenderer: the Java Sound " +
+                "synthesizer can't be used, using the built-in " +
+                "synthesizer instead: " + ex);
+        }
+    }
+
+
+    /**
+     * Gets the messages of a sequence, in time order, with their
+     * times in microseconds. Notes of muted tracks are left out.
+     */
+    private ArrayList<TimedMessage> getMessages(Sequence sequence,
+        int[] mutedTracks)
+    {
+        Track[] tracks = sequence.getTracks();
+        ArrayList<MidiEvent> events = new ArrayList<MidiEvent>();
+        for (int t=0; t<tracks.length; t++) {
+            boolean muted = false;
+            for (int i=0; i<mutedTracks.length; i++) {
+                muted |= (mutedTracks[i] == t);
+            }
+            for (int i=0; i<tracks[t].size(); i++) {
+                MidiEvent event = tracks[t].get(i);
+                if (!muted || !isNote(event.getMessage())) {
+                    events.add(event);
+                }
+            }
+        }
+
+        // sort by tick; the sort is stable, so events at the same
+        // tick keep their order
+        Collections.sort(events, new Comparator<MidiEvent>() {
+            public int compare(MidiEvent a, MidiEvent b) {
+                return (a.getTick() < b.getTick()) ? -1 :
+                    ((a.getTick() == b.getTick()) ? 0 : 1);
+            }
+        });
+
+        // convert ticks to microseconds, following tempo changes
+        ArrayList<TimedMessage> messages =
+            new ArrayList<TimedMessage>(events.size());
+        boolean ppq = (sequence.getDivisionType() == Sequence.PPQ);
+        double resolution = sequence.getResolution();
+        double tempo = DEFAULT_TEMPO;
+        double micros = 0;
+        long lastTick = 0;
+        for (int i=0; i<events.size(); i++) {
+            MidiEvent event = events.get(i);
+            long ticks = event.getTick() - lastTick;
+            if (ppq) {
+                micros += ticks * tempo / resolution;
+            }
+            else {
+                micros += ticks * 1000000.0 /
+                    (sequence.getDivisionType() * resolution);
+            }
+            lastTick = event.getTick();
+
+            MidiMessage message = event.getMessage();
+            if (message instanceof MetaMessage &&
+                ((MetaMessage)message).getType() == TEMPO_MESSAGE)
+            {
+                byte[] data = ((MetaMessage)message).getData();
+                tempo = ((data[0] & 0xff) << 16) |
+                    ((data[1] & 0xff) << 8) | (data[2] & 0xff);
+            }
+            else if (message instanceof ShortMessage) {
+                messages.add(new TimedMessage((ShortMessage)message,
+                    (long)micros));
+            }
+        }
+        return messages;
+    }
+
+
+    private static boolean isNote(MidiMessage message) {
+        if (!(message instanceof ShortMessage)) {
+            return false;
+        }
+        int command = ((ShortMessage)message).getCommand();
+        return (command == ShortMessage.NOTE_ON ||
+            command == ShortMessage.NOTE_OFF);
+    }
+
+
+    /**
+     * Renders with the Java Sound software synthesizer, opened
+     * as a stream. Returns null if it can't be used.
+     */
+    private byte[] renderWithSynthesizer(
+        ArrayList<TimedMessage> messages, int frames)
+    {
+        Synthesizer synthesizer = null;
+        try {
+            synthesizer = MidiSystem.getSynthesizer();
+            Method openStream = getOpenStreamMethod(synthesizer);
+            AudioInputStream stream = (AudioInputStream)
+                openStream.invoke(synthesizer, format, null);
+
+            // queue every message at its time, then read the
+            // rendered samples
+            Receiver receiver = synthesizer.getReceiver();
+            for (int i=0; i<messages.size(); i++) {
+                TimedMessage message = messages.get(i);
+                receiver.send(message.message, message.micros);
+            }
+            byte[] samples = new byte[frames * format.getFrameSize()];
+            int offset = 0;
+            while (offset < samples.length) {
+                int count = stream.read(samples, offset,
+                    samples.length - offset);
+                if (count == -1) {
+                    break;
+                }
+                offset += count;
+            }
+            stream.close();
+            return samples;
+        }
+        catch (Exception ex) {
+            // not available - use the simple synthesizer
+            logFallback(ex);
+            return null;
+        }
+        finally {
+            if (synthesizer != null && synthesizer.isOpen()) {
+                synthesizer.close();
+            }
+        }
+    }
+
+
+    /**
+     * Renders with the built-in synthesizer.
+     */
+    private byte[] renderSimple(ArrayList<TimedMessage> messages,
+        int frames)
+    {
+        float sampleRate = format.getSampleRate();
+        float[] mix = new float[frames];
+        ArrayList<Note> notes = new ArrayList<Note>();
+        int frame = 0;
+        for (int i=0; i<=messages.size(); i++) {
+            // render up to the next message
+            int nextFrame = frames;
+            if (i < messages.size()) {
+                nextFrame = (int)Math.min(frames,
+                    messages.get(i).micros * (long)sampleRate /
+                    1000000L);
+            }
+            for (int j=notes.size()-1; j>=0; j--) {
+                if (!notes.get(j).render(mix, frame, nextFrame)) {
+                    notes.remove(j);
+                }
+            }
+            frame = Math.max(frame, nextFrame);
+            if (i == messages.size()) {
+                break;
+            }
+
+            // start or release notes
+            ShortMessage message = messages.get(i).message;
+            int command = message.getCommand();
+            int key = message.getData1();
+            int velocity = message.getData2();
+            if (command == ShortMessage.NOTE_ON && velocity > 0) {
+                notes.add(new Note(message.getChannel(), key,
+                    velocity, sampleRate));
+            }
+            else if (command == ShortMessage.NOTE_ON ||
+                command == ShortMessage.NOTE_OFF)
+            {
+                for (int j=0; j<notes.size(); j++) {
+                    notes.get(j).release(message.getChannel(), key);
+                }
+            }
+        }
+
+        // clip and encode every channel
+        int channels = format.getChannels();
+        byte[] samples = new byte[frames * format.getFrameSize()];
+        for (int i=0; i<frames; i++) {
+            float value = Math.max(-1, Math.min(1, mix[i]));
+            short sample = (short)(value * Short.MAX_VALUE);
+            for (int c=0; c<channels; c++) {
+                SoundFilter.setSample(samples, 2 * (i*channels + c),
+                    sample);
+            }
+        }
+        return samples;
+    }
+
+
+    /**
+     * Encodes samples as a WAV file.
+     */
+    private byte[] toWav(byte[] samples) throws IOException {
+        AudioInputStream stream = new AudioInputStream(
+            new ByteArrayInputStream(samples), format,
+            samples.length / format.getFrameSize());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+            samples.length + 64);
+        AudioSystem.write(stream, AudioFileFormat.Type.WAVE, out);
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Writes a WAV file to the first cache directory it can be
+     * written to. If it can't be written anywhere, the reason is
+     * logged.
+     */
+    private static void cache(byte[] wav, String name,
+        File[] directories)
+    {
+        IOException error = null;
+        for (int i=0; i<directories.length; i++) {
+            try {
+                write(wav, new File(directories[i], name));
+                return;
+            }
+            catch (IOException ex) {
+                // try the next directory
+                error = ex;
+            }
+        }
+        System.err.println("MidiRenderer: can't cache " + name +
+            ", keeping it in memory: " + error);
+    }
+
+
+    /**
+     * Writes a file. The file is written under a temporary name
+     * and then renamed, so a partly written stem is never found
+     * in the cache.
+     */
+    private static void write(byte[] data, File file)
+        throws IOException
+    {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can't write " + file);
+        }
+    }
+
+
+    /**
+     * Maps a cached file into memory.
+     */
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Gets the cache directories, in the order they are tried:
+     * next to the jar the game runs from (or in the classes
+     * directory), in the user's home directory, and in the
+     * temporary directory.
+     */
+    private static File[] getCacheDirectories() {
+        ArrayList<File> directories = new ArrayList<File>();
+        try {
+            CodeSource source = MidiRenderer.class.getProtectionDomain()
+                .getCodeSource();
+            if (source != null) {
+                File location = new File(source.getLocation().toURI());
+                if (location.isFile()) {
+                    location = location.getParentFile();
+                }
+                directories.add(new File(location, CACHE_DIRECTORY));
+            }
+        }
+        catch (URISyntaxException ex) {
+            // not known - use the other directories
+        }
+        catch (IllegalArgumentException ex) {
+            // not a file - use the other directories
+        }
+        String home = System.getProperty("user.home");
+        if (home != null) {
+            directories.add(new File(home, HOME_CACHE_DIRECTORY));
+        }
+        directories.add(new File(System.getProperty("java.io.tmpdir"),
+            CACHE_DIRECTORY));
+        return directories.toArray(new File[directories.size()]);
+    }
+
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            is.close();
+        }
+    }
+
+
+    /**
+     * A MIDI message and its time, in microseconds.
+     */
+    private static class TimedMessage {
+
+        private ShortMessage message;
+        private long micros;
+
+        public TimedMessage(ShortMessage message, long micros) {
+            this.message = message;
+            this.micros = micros;
+        }
+    }
+
+
+    /**
+     * A note played by the built-in synthesizer: a square wave,
+     * or a burst of noise for drums, with a decaying envelope.
+     */
+    private static class Note {
+
+        // loudness of a note at full velocity
+        private static final float VOLUME = .15f;
+
+        private int channel;
+        private int key;
+        private boolean drum;
+        private float amplitude;
+        private float decay;
+        private float releaseDecay;
+        private double phase;
+        private double phaseStep;
+        private int noise;
+        private boolean released;
+
+        public Note(int channel, int key, int velocity,
+            float sampleRate)
+        {
+            this.channel = channel;
+            this.key = key;
+            drum = (channel == DRUM_CHANNEL);
+            amplitude = VOLUME * velocity / 127;
+            // release over about 30ms
+            releaseDecay = (float)Math.pow(.001, 1 / (.03 * sampleRate));
+            if (drum) {
+                // lower drums ring longer: 50 to 250ms
+                float seconds = .05f + .2f * (81 - Math.min(81, key)) / 46;
+                decay = (float)Math.pow(.001, 1 / (seconds * sampleRate));
+                noise = key * 7919 + 1;
+            }
+            else {
+                // a slow decay while held
+                decay = (float)Math.pow(.5, 1 / (2 * sampleRate));
+                phaseStep = 440 * Math.pow(2, (key - 69) / 12.0) /
+                    sampleRate;
+            }
+        }
+
+
+        public void release(int channel, int key) {
+            if (this.channel == channel && this.key == key) {
+                released = true;
+            }
+        }
+
+
+        /**
+         * Adds this note to the mix. Returns false once it is
+         * silent.
+         */
+        public boolean render(float[] mix, int start, int end) {
+            float gain = released && !drum ? releaseDecay : decay;
+            for (int i=start; i<end; i++) {
+                float value;
+                if (drum) {
+                    noise = noise * 1103515245 + 12345;
+                    value = (noise >> 16) / 32768f;
+                }
+                else {
+                    phase += phaseStep;
+                    phase -= (int)phase;
+                    value = (phase < .5) ? 1 : -1;
+                }
+                mix[i] += value * amplitude;
+                amplitude *= gain;
+            }
+            return (amplitude > .0001f);
+        }
+    }
+}
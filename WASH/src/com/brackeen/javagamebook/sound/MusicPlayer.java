@@ -0,0 +1,482 @@
+package com.brackeen.javagamebook.sound;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.sound.sampled.AudioInputStream;
+import com.brackeen.javagamebook.util.ByteBufferInputStream;
+
+/**
+ * The MusicPlayer class streams music through a SoundManager's
+ * mixer. A track is never decoded in full: the mixer reads a
+ * few milliseconds at a time from a stream of the sound file,
+ * so only small buffers are resident no matter how long the
+ * track is. Tracks in the file system are mapped into memory
+ * with a FileChannel; other tracks (like those in a jar) are
+ * read through a small buffered stream. A track can also be a
+ * sound file that is already in a buffer.
+ * <p>Looping tracks start over without reloading the file (a
+ * mapped file is just rewound). Changing tracks can crossfade
+ * from the old track to the new one; call update() every frame
+ * for the fade to progress. switchTo() crossfades between
+ * versions of the same music, keeping them in time.
+ */
+public class MusicPlayer {
+
+    // music is never stolen by sound effects
+    private static final int MUSIC_PRIORITY = Integer.MAX_VALUE;
+
+    private SoundManager soundManager;
+    private Track track;
+    private Track fadingTrack;
+    private boolean paused;
+
+    /**
+     * Creates a new MusicPlayer that plays through the specified
+     * SoundManager.
+     * @param soundManager  the SoundManager to play through
+     */
+    public MusicPlayer(SoundManager soundManager) {
+        this.soundManager = soundManager;
+    }
+
+
+    /**
+     * Plays a track right away, stopping the current track.
+     * @param filename  the name of the track
+     * @param loop  if the track will be looped or not
+     * @return true if the track could be opened
+     */
+    public boolean play(String filename, boolean loop) {
+        return play(filename, loop, 0);
+    }
+
+
+    /**
+     * Plays a track, crossfading from the current track over the
+     * specified time. If the track is already playing, it keeps
+     * playing. If the track can't be opened, the current track
+     * fades out.
+     * @param filename  the name of the track
+     * @param loop  if the track will be looped or not
+     * @param fadeMillis  the length of the crossfade
+     * @return true if the track could be opened
+     */
+    public boolean play(String filename, boolean loop,
+        int fadeMillis)
+    {
+        return play(filename, MusicPlayer.class.getResource(filename),
+            null, loop, fadeMillis, 0);
+    }
+
+
+    /**
+     * Plays a track from a buffer, crossfading from the current
+     * track over the specified time. If a track of the same name
+     * is already playing, it keeps playing. The buffer isn't
+     * copied, and must not be changed.
+     * @param name  the name of the track
+     * @param data  the sound file
+     * @param loop  if the track will be looped or not
+     * @param fadeMillis  the length of the crossfade
+     * @return true if the track could be opened
+     */
+    public boolean play(String name, ByteBuffer data, boolean loop,
+        int fadeMillis)
+    {
+        return play(name, null, data, loop, fadeMillis, 0);
+    }
+
+
+    /**
+     * Crossfades to another version of the current track, like
+     * a stem of the same music with other instruments muted. The
+     * new track starts where the current track is, so the two
+     * stay in time. If no track is playing, the new track starts
+     * from the beginning.
+     * @param name  the name of the track
+     * @param data  the sound file
+     * @param loop  if the track will be looped or not
+     * @param fadeMillis  the length of the crossfade
+     * @return true if the track could be opened
+     */
+    public boolean switchTo(String name, ByteBuffer data, boolean loop,
+        int fadeMillis)
+    {
+        long position = 0;
+        if (track != null && track.voice.isPlaying()) {
+            position = track.stream.getPosition();
+        }
+        return play(name, null, data, loop, fadeMillis, position);
+    }
+
+
+    /**
+     * Plays a track, from a URL or a buffer, from the specified
+     * position, in bytes.
+     */
+    private boolean play(String name, URL url, ByteBuffer data,
+        boolean loop, int fadeMillis, long position)
+    {
+        if (track != null && track.filename.equals(name) &&
+            track.voice.isPlaying())
+        {
+            return true;
+        }
+
+        fadeOut(fadeMillis);
+
+        MusicStream stream = MusicStream.open(soundManager,
+            name, url, data, loop, position);
+        if (stream == null) {
+            return false;
+        }
+        Voice voice = soundManager.play(stream, null,
+            MUSIC_PRIORITY);
+        voice.setPaused(paused);
+        track = new Track(name, stream, voice);
+        if (fadeMillis > 0) {
+            voice.setGain(0);
+            track.fade(1, fadeMillis);
+        }
+        return true;
+    }
+
+
+    /**
+     * Fades out the current track over the specified time.
+     * @param fadeMillis  the length of the fade
+     */
+    public void fadeOut(int fadeMillis) {
+        if (fadingTrack != null) {
+            fadingTrack.close();
+            fadingTrack = null;
+        }
+        if (track != null) {
+            if (fadeMillis > 0) {
+                fadingTrack = track;
+                fadingTrack.fade(0, fadeMillis);
+            }
+            else {
+                track.close();
+            }
+            track = null;
+        }
+    }
+
+
+    /**
+     * Stops the music right away.
+     */
+    public void stop() {
+        fadeOut(0);
+    }
+
+
+    /**
+     * Gets the name of the track playing, or null if no track is
+     * playing.
+     * @return the name of the track
+     */
+    public String getTrack() {
+        if (track != null && track.voice.isPlaying()) {
+            return track.filename;
+        }
+        return null;
+    }
+
+
+    /**
+     * Pauses the music. The tracks keep their place, and any
+     * crossfade continues when the music is resumed.
+     */
+    public void pause() {
+        setPaused(true);
+    }
+
+
+    /**
+     * Resumes the music where it was paused.
+     */
+    public void resume() {
+        setPaused(false);
+    }
+
+
+    /**
+     * Returns whether the music is paused.
+     * @return true if paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+
+    private void setPaused(boolean paused) {
+        this.paused = paused;
+        if (track != null) {
+            track.voice.setPaused(paused);
+        }
+        if (fadingTrack != null) {
+            fadingTrack.voice.setPaused(paused);
+        }
+    }
+
+
+    /**
+     * Updates any crossfade in progress.
+     * @param elapsedTime  milliseconds since the last update
+     */
+    public void update(long elapsedTime) {
+        if (paused) {
+            return;
+        }
+        if (track != null) {
+            track.update(elapsedTime);
+        }
+        if (fadingTrack != null && !fadingTrack.update(elapsedTime)) {
+            fadingTrack.close();
+            fadingTrack = null;
+        }
+    }
+
+
+    /**
+     * Stops the music and closes the streams.
+     */
+    public void close() {
+        stop();
+    }
+
+
+    /**
+     * A track being played, and its fade.
+     */
+    private static class Track {
+
+        private String filename;
+        private MusicStream stream;
+        private Voice voice;
+        private float targetGain;
+        private float gainPerMilli;
+
+        public Track(String filename, MusicStream stream,
+            Voice voice)
+        {
+            this.filename = filename;
+            this.stream = stream;
+            this.voice = voice;
+            targetGain = voice.getGain();
+        }
+
+
+        /**
+         * Starts fading from the current gain to the specified
+         * gain.
+         */
+        public void fade(float gain, int fadeMillis) {
+            targetGain = gain;
+            gainPerMilli = Math.abs(gain - voice.getGain()) /
+                fadeMillis;
+        }
+
+
+        /**
+         * Moves the gain toward the target gain. Returns false if
+         * the track is silent and done.
+         */
+        public boolean update(long elapsedTime) {
+            float gain = voice.getGain();
+            if (gain < targetGain) {
+                voice.setGain(Math.min(targetGain,
+                    gain + gainPerMilli * elapsedTime));
+            }
+            else if (gain > targetGain) {
+                voice.setGain(Math.max(targetGain,
+                    gain - gainPerMilli * elapsedTime));
+            }
+            return voice.isPlaying() &&
+                (targetGain > 0 || voice.getGain() > 0);
+        }
+
+
+        public void close() {
+            voice.stop();
+            stream.close();
+        }
+    }
+
+
+    /**
+     * An InputStream of a track in the SoundManager's playback
+     * format, which loops by starting over at the end of the
+     * file. It is read by the mixer's thread and closed by the
+     * game's thread, so reading and closing are synchronized.
+     */
+    private static class MusicStream extends InputStream {
+
+        private SoundManager soundManager;
+        private URL url;
+        private boolean loop;
+        private RandomAccessFile file;
+        private ByteBufferInputStream mapped;
+        private AudioInputStream audio;
+        private long position;
+        private boolean closed;
+
+        private MusicStream(SoundManager soundManager, URL url,
+            boolean loop)
+        {
+            this.soundManager = soundManager;
+            this.url = url;
+            this.loop = loop;
+        }
+
+
+        /**
+         * Opens a track, from a URL or a buffer, or returns null
+         * if it can't be opened.
+         */
+        public static MusicStream open(SoundManager soundManager,
+            String filename, URL url, ByteBuffer data, boolean loop,
+            long position)
+        {
+            MusicStream stream = null;
+            try {
+                if (url == null && data == null) {
+                    throw new FileNotFoundException(filename);
+                }
+                stream = new MusicStream(soundManager, url, loop);
+                if (data != null) {
+                    // read a view, so the buffer can be shared
+                    stream.mapped = new ByteBufferInputStream(
+                        data.duplicate());
+                }
+                if (stream.start()) {
+                    stream.seek(position);
+                    return stream;
+                }
+            }
+            catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            if (stream != null) {
+                stream.close();
+            }
+            return null;
+        }
+
+
+        /**
+         * Starts reading the track from the beginning. Returns
+         * false if the track isn't a readable sound file.
+         */
+        private boolean start() throws IOException {
+            InputStream in;
+            if (mapped != null) {
+                mapped.rewind();
+                in = mapped;
+            }
+            else if (url.getProtocol().equals("file")) {
+                try {
+                    file = new RandomAccessFile(
+                        new File(url.toURI()), "r");
+                }
+                catch (URISyntaxException ex) {
+                    throw new FileNotFoundException(url.toString());
+                }
+                FileChannel channel = file.getChannel();
+                mapped = new ByteBufferInputStream(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
+                in = mapped;
+            }
+            else {
+                in = new BufferedInputStream(url.openStream());
+            }
+
+            if (audio != null) {
+                audio.close();
+            }
+            audio = soundManager.getAudioInputStream(in);
+            position = 0;
+            return (audio != null);
+        }
+
+
+        /**
+         * Skips ahead to the specified position, in bytes, of the
+         * track.
+         */
+        private void seek(long position) throws IOException {
+            int frameSize = audio.getFormat().getFrameSize();
+            long remaining = position - position % frameSize;
+            while (remaining > 0) {
+                long count = audio.skip(remaining);
+                if (count <= 0) {
+                    break;
+                }
+                remaining -= count;
+                this.position += count;
+            }
+        }
+
+
+        /**
+         * Gets the position, in bytes, that the mixer has read up
+         * to in this pass through the track.
+         */
+        public synchronized long getPosition() {
+            return position;
+        }
+
+
+        public synchronized int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+        }
+
+
+        public synchronized int read(byte[] b, int offset,
+            int length) throws IOException
+        {
+            if (closed) {
+                return -1;
+            }
+            int count = audio.read(b, offset, length);
+            if (count == -1 && loop) {
+                // start over, unless the track is empty
+                if (start()) {
+                    count = audio.read(b, offset, length);
+                }
+            }
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+
+        public synchronized void close() {
+            closed = true;
+            try {
+                if (audio != null) {
+                    audio.close();
+                }
+                if (file != null) {
+                    file.close();
+                }
+            }
+            catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.brackeen.javagamebook.sound;
+
+/**
+ * The ReverbFilter class is a SoundFilter that emulates a room's
+ * reverberation with a small feedback delay network: four
+ * DelayLines of different lengths, whose outputs are mixed
+ * together (with a Householder matrix) and fed back into each
+ * other.
+ * <p>The samples are processed in blocks no longer than the
+ * shortest delay, so each block reads and writes each DelayLine
+ * with at most two array copies.
+ * @see FilteredSoundStream
+ */
+public class ReverbFilter extends ShortSoundFilter {
+
+    // delay lengths, in frames at 44100Hz: about 32 to 36ms,
+    // with no common factors
+    private static final int[] DELAY_FRAMES = { 1422, 1491, 1557, 1617 };
+
+    private static final int NUM_DELAYS = DELAY_FRAMES.length;
+
+    private DelayLine[] delayLines;
+    private short[][] delayed;
+    private short[][] feedback;
+    private int blockSize;
+    private float decay;
+    private float wet;
+
+    /**
+     * Creates a ReverbFilter for mono sound.
+     * @param decay  how much of the sound is fed back each time
+     * around the network, from 0 to less than 1
+     * @param wet  how loud the reverberation is, relative to the
+     * source
+     */
+    public ReverbFilter(float decay, float wet) {
+        this(decay, wet, 1);
+    }
+
+
+    /**
+     * Creates a ReverbFilter for sound with the specified number
+     * of channels. The channels are interleaved, so the delays
+     * are multiples of the number of channels.
+     * @param decay  how much of the sound is fed back each time
+     * around the network, from 0 to less than 1
+     * @param wet  how loud the reverberation is, relative to the
+     * source
+     * @param channels  the number of channels
+     */
+    public ReverbFilter(float decay, float wet, int channels) {
+        this.decay = decay;
+        this.wet = wet;
+        delayLines = new DelayLine[NUM_DELAYS];
+        for (int i=0; i<NUM_DELAYS; i++) {
+            delayLines[i] = new DelayLine(DELAY_FRAMES[i] * channels);
+        }
+        blockSize = delayLines[0].getLength();
+        delayed = new short[NUM_DELAYS][blockSize];
+        feedback = new short[NUM_DELAYS][blockSize];
+    }
+
+
+    /**
+     * Gets the remaining size, in bytes, of samples that this
+     * filter reverberates after the sound is done playing.
+     * Ensures that the sound will have decayed to below 1%
+     * of maximum volume (amplitude).
+     * @return the remaining size of samples
+     */
+    public int getRemainingSize() {
+        float finalDecay = 0.01f;
+        int numRemainingDelays = (int)Math.ceil(
+            Math.log(finalDecay) / Math.log(decay));
+        int bufferSize = delayLines[NUM_DELAYS - 1].getLength() * 2;
+
+        return bufferSize * numRemainingDelays;
+    }
+
+
+    /**
+     * Clears this ReverbFilter's delay lines.
+     */
+    public void reset() {
+        for (int i=0; i<NUM_DELAYS; i++) {
+            delayLines[i].reset();
+        }
+    }
+
+
+    /**
+     * Filters the sound samples to add reverberation.
+     * @param samples  the sound samples
+     * @param offset  where the sound samples begin
+     * @param length  the number of samples
+     */
+    public void filter(short[] samples, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, blockSize);
+            filterBlock(samples, offset, count);
+            offset += count;
+        }
+    }
+
+
+    private void filterBlock(short[] samples, int offset, int count) {
+        for (int j=0; j<NUM_DELAYS; j++) {
+            delayLines[j].read(delayed[j], 0, count);
+        }
+
+        short[] d0 = delayed[0];
+        short[] d1 = delayed[1];
+        short[] d2 = delayed[2];
+        short[] d3 = delayed[3];
+        for (int i=0; i<count; i++) {
+            int sum = d0[i] + d1[i] + d2[i] + d3[i];
+            int in = samples[offset + i];
+
+            // Householder feedback: each line gets the input plus
+            // its own output minus half the sum of all outputs
+            int half = sum >> 1;
+            feedback[0][i] = clip(in + decay * (d0[i] - half));
+            feedback[1][i] = clip(in + decay * (d1[i] - half));
+            feedback[2][i] = clip(in + decay * (d2[i] - half));
+            feedback[3][i] = clip(in + decay * (d3[i] - half));
+
+            samples[offset + i] = clip(in + wet * sum / NUM_DELAYS);
+        }
+
+        for (int j=0; j<NUM_DELAYS; j++) {
+            delayLines[j].write(feedback[j], 0, count);
+        }
+    }
+
+
+    private static short clip(float sample) {
+        if (sample > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (sample < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short)sample;
+    }
+}
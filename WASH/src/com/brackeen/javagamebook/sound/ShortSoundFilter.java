@@ -0,0 +1,47 @@
+package com.brackeen.javagamebook.sound;
+
+/**
+ * A abstract class designed to filter decoded sound samples.
+ * FilteredSoundStream decodes each buffer once, runs it through
+ * the filter as shorts, and encodes it once, instead of every
+ * filter getting and setting each sample in a byte array.
+ * <p>Byte samples passed to a ShortSoundFilter are decoded,
+ * filtered, and encoded again, so it can still be used
+ * wherever a SoundFilter is.
+ * @see FilteredSoundStream
+ */
+public abstract class ShortSoundFilter extends SoundFilter {
+
+    // scratch buffer for the byte[] adapter
+    private short[] shortBuffer;
+
+    /**
+     * Filters an array of samples in 16-bit, signed,
+     * little-endian format by decoding them and passing them to
+     * filter(short[], int, int).
+     * @param samples  the sound samples
+     * @param offset  where the sound samples begin
+     * @param length  the amount of sound samples, in bytes
+     */
+    public void filter(byte[] samples, int offset, int length) {
+        int numSamples = length / 2;
+        if (shortBuffer == null || shortBuffer.length < numSamples) {
+            shortBuffer = new short[numSamples];
+        }
+        decode(samples, offset, shortBuffer, 0, numSamples);
+        filter(shortBuffer, 0, numSamples);
+        encode(shortBuffer, 0, samples, offset, numSamples);
+    }
+
+
+    /**
+     * Filters an array of decoded samples. This method should
+     * be implemented by subclasses.
+     * @param samples  the sound samples
+     * @param offset  where the sound samples begin
+     * @param length  the number of samples
+     */
+    public abstract void filter(
+        short[] samples, int offset, int length);
+
+}
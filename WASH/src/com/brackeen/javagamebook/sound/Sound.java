@@ -1,12 +1,26 @@
 package com.brackeen.javagamebook.sound;
 
+import javax.sound.sampled.AudioFormat;
+
 /**
  * The Sound class is a container for sound samples. The sound
  * samples are format-agnostic and are stored as a byte array.
+ * A Sound may know the format of its samples, if it was
+ * decoded from a sound file.
+ * <p>Sounds are shared (see SoundCache), so a Sound never
+ * changes. The priority a Sound is played with is given to
+ * SoundManager.play().
  */
 public class Sound {
 
+    /**
+     * The priority a Sound is played with unless another one is
+     * given.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
     private byte[] samples;
+    private AudioFormat format;
 
     /**
      * Create a new Sound object with the specified byte array.
@@ -18,6 +32,19 @@ public class Sound {
     }
 
 
+    /**
+     * Create a new Sound object with the specified byte array
+     * of samples in the specified format. The array is not
+     * copied.
+     * @param samples  the specified byte array of samples
+     * @param format  the format of the samples
+     */
+    public Sound(byte[] samples, AudioFormat format) {
+        this.samples = samples;
+        this.format = format;
+    }
+
+
     /**
      * Returns this Sound's objects samples as a byte array.
      * @return the samples
@@ -26,4 +53,15 @@ public class Sound {
         return samples;
     }
 
+
+    /**
+     * Returns the format of this Sound's samples, or null if
+     * it isn't known.
+     * @return the format
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+
 }
@@ -0,0 +1,233 @@
+package com.brackeen.javagamebook.sound;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * The SoundCache class is a process-wide cache of decoded
+ * sounds, keyed by the sound's resource name and the format it
+ * was converted to. A sound is decoded and converted the first
+ * time it is asked for; after that every request gets the same
+ * Sound, whose samples are shared, not copied.
+ * <p>The cache holds up to a budget of bytes of samples. When
+ * it holds more, the least recently used sounds are dropped
+ * (Sounds already handed out keep working).
+ * <p>Sounds are decoded without holding the cache's lock, so a
+ * request for a cached sound never waits behind a decode. Two
+ * threads that miss the same sound at once may both decode it,
+ * but only the first Sound is kept, and both get it.
+ */
+public class SoundCache {
+
+    // default budget, in bytes of samples
+    private static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private static SoundCache instance;
+
+    private LinkedHashMap<String, Sound> sounds;
+    private long maxBytes;
+    private long size;
+    private int hits;
+    private int misses;
+
+    /**
+     * Gets the process-wide SoundCache.
+     * @return the SoundCache
+     */
+    public static synchronized SoundCache getInstance() {
+        if (instance == null) {
+            instance = new SoundCache(DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+
+    /**
+     * Creates a new SoundCache that holds up to the specified
+     * number of bytes of samples.
+     * @param maxBytes  the budget, in bytes
+     */
+    public SoundCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        // access-ordered, so the eldest entry is the least
+        // recently used
+        sounds = new LinkedHashMap<String, Sound>(16, .75f, true);
+    }
+
+
+    /**
+     * Gets a sound, converted to the specified format. The sound
+     * is loaded if it isn't in the cache. Returns null if the
+     * sound can't be loaded or converted.
+     * @param filename  the resource name of the sound
+     * @param format  the format to convert to, or null to keep
+     * the sound's own format
+     * @return the sound
+     */
+    public Sound get(String filename, AudioFormat format) {
+        String key = getKey(filename, format);
+        synchronized (this) {
+            Sound sound = sounds.get(key);
+            if (sound != null) {
+                hits++;
+                return sound;
+            }
+            misses++;
+        }
+
+        // decode without the lock
+        Sound sound = load(filename, format);
+        if (sound == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            // another thread may have loaded it in the meantime
+            Sound loaded = sounds.get(key);
+            if (loaded != null) {
+                return loaded;
+            }
+            sounds.put(key, sound);
+            size += sound.getSamples().length;
+            trim();
+        }
+        return sound;
+    }
+
+
+    /**
+     * Sets the budget of this SoundCache, dropping the least
+     * recently used sounds if it holds more.
+     * @param maxBytes  the budget, in bytes
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+
+    /**
+     * Gets the budget of this SoundCache.
+     * @return the budget, in bytes
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+
+    /**
+     * Gets the number of bytes of samples in this SoundCache.
+     * @return the size, in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+
+    /**
+     * Gets the number of requests that found their sound in this
+     * SoundCache.
+     * @return the number of hits
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+
+    /**
+     * Gets the number of requests that had to load their sound.
+     * @return the number of misses
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+
+    /**
+     * Drops every sound in this SoundCache.
+     */
+    public synchronized void clear() {
+        sounds.clear();
+        size = 0;
+    }
+
+
+    /**
+     * Drops the least recently used sounds until this SoundCache
+     * is within its budget. The most recent sound is kept even
+     * if it is over the budget on its own.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Sound>> i =
+            sounds.entrySet().iterator();
+        while (size > maxBytes && sounds.size() > 1) {
+            Sound eldest = i.next().getValue();
+            size -= eldest.getSamples().length;
+            i.remove();
+        }
+    }
+
+
+    private static String getKey(String filename, AudioFormat format) {
+        if (format == null) {
+            return filename;
+        }
+        // AudioFormat doesn't override equals(), but its string
+        // has every property of the format
+        return filename + "|" + format;
+    }
+
+
+    /**
+     * Decodes a sound from a resource, converting it to the
+     * specified format. Returns null if an error occurs.
+     */
+    private static Sound load(String filename, AudioFormat format) {
+        try {
+            URL url = SoundCache.class.getResource(filename);
+            if (url == null) {
+                throw new FileNotFoundException(filename);
+            }
+            AudioInputStream audioStream =
+                AudioSystem.getAudioInputStream(
+                new BufferedInputStream(url.openStream()));
+            if (format != null) {
+                audioStream = AudioSystem.getAudioInputStream(format,
+                    audioStream);
+            }
+
+            // read the entire stream
+            int length = (int)(audioStream.getFrameLength() *
+                audioStream.getFormat().getFrameSize());
+            byte[] samples = new byte[length];
+            DataInputStream is = new DataInputStream(audioStream);
+            try {
+                is.readFully(samples);
+            }
+            finally {
+                is.close();
+            }
+            return new Sound(samples, audioStream.getFormat());
+        }
+        catch (UnsupportedAudioFileException ex) {
+            ex.printStackTrace();
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        catch (IllegalArgumentException ex) {
+            ex.printStackTrace();
+        }
+        return null;
+    }
+}
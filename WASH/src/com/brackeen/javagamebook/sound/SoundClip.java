@@ -39,17 +39,13 @@
 
 package com.brackeen.javagamebook.sound;
 
-import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.AudioSystem;
-import java.io.IOException;
-import java.net.URL;
 
 public class SoundClip {
 
-	private AudioInputStream sample;
+	private Sound sample;
 	private Clip clip;
 	private boolean looping = false;
 	private int repeat = 0;
@@ -59,11 +55,16 @@ public class SoundClip {
 	 * Constructor default
 	 */
 	public SoundClip() {
+		//sin sonido, no crea el Buffer
+		if (SoundManager.isNullSink())
+			return;
 		try {
 			//crea el Buffer de sonido
 			clip = AudioSystem.getClip();
 		} catch (LineUnavailableException e) { 
 
+		} catch (IllegalArgumentException e) {
+
 		}
 	}
 
@@ -153,37 +154,28 @@ public class SoundClip {
 	}
 
 	/** 
-	 * Metodo de acceso que regresa el url del archivo
-	 * @param filename es un <code>String</code> con el nombre del archivo. 
-	 */
-	private URL getURL(String filename) {
-		URL url = null;
-		try {
-			url = this.getClass().getResource(filename);
-		}
-		catch (Exception e) { 
-
-		}
-		return url;
-	}
-
-	/** 
-	 * Metodo que carga el archivo de sonido.
+	 * Metodo que carga el archivo de sonido. El sonido se decodifica
+	 * una sola vez y se comparte por medio de <code>SoundCache</code>.
 	 * @param audiofile es un <code>String</code> con el nombre del archivo de sonido.
 	 */
 	public boolean load(String audiofile) {
 		try {
 			setFilename(audiofile);
-			sample = AudioSystem.getAudioInputStream(getURL(filename));
-			clip.open(sample);
+			//no hay Buffer donde cargarlo
+			if (clip == null)
+				return false;
+			Sound sound = SoundCache.getInstance().get(filename, null);
+			if (sound == null)
+				return false;
+			clip.open(sound.getFormat(), sound.getSamples(), 0,
+				sound.getSamples().length);
+			sample = sound;
 			return true;
 
-		} catch (IOException e) {
-			return false;
-		} catch (UnsupportedAudioFileException e) {
-			return false;
 		} catch (LineUnavailableException e) {
 			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
 		}
 	}
 
@@ -208,7 +200,8 @@ public class SoundClip {
 	 * Metodo que detiene el sonido.
 	 */
 	public void stop() {
-		clip.stop();
+		if (clip != null)
+			clip.stop();
 	}
 
 }
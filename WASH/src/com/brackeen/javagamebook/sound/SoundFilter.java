@@ -2,6 +2,9 @@ package com.brackeen.javagamebook.sound;
 
 /**
  * A abstract class designed to filter sound samples.
+ * Filters that work on decoded samples should extend
+ * ShortSoundFilter instead; this class filters samples encoded
+ * in bytes, and adapts itself to the short[] contract.
  * Since SoundFilters may use internal buffering of samples,
  * a new SoundFilter object should be created for every sound
  * played. However, SoundFilters can be reused after they are
@@ -12,6 +15,9 @@ package com.brackeen.javagamebook.sound;
  */
 public abstract class SoundFilter{
 
+    // scratch buffer for the short[] adapter
+    private byte[] byteBuffer;
+
     /**
      * Resets this SoundFilter. Does nothing by default.
      */
@@ -53,6 +59,25 @@ public abstract class SoundFilter{
         byte[] samples, int offset, int length);
 
 
+    /**
+     * Filters an array of decoded samples. By default, this
+     * encodes the samples to bytes, filters them with
+     * filter(byte[], int, int), and decodes them again;
+     * ShortSoundFilters filter the samples directly.
+     * @param samples  the sound samples
+     * @param offset  where the sound samples begin
+     * @param length  the number of samples
+     */
+    public void filter(short[] samples, int offset, int length) {
+        if (byteBuffer == null || byteBuffer.length < length * 2) {
+            byteBuffer = new byte[length * 2];
+        }
+        encode(samples, offset, byteBuffer, 0, length);
+        filter(byteBuffer, 0, length * 2);
+        decode(byteBuffer, 0, samples, offset, length);
+    }
+
+
     /**
      * Convenience method for getting a 16-bit sample from a
      * byte array. Samples should be in 16-bit, signed,
@@ -83,4 +108,44 @@ public abstract class SoundFilter{
         buffer[position+1] = (byte)((sample >> 8) & 0xff);
     }
 
+
+    /**
+     * Decodes 16-bit, signed, little-endian samples from a byte
+     * array into a short array.
+     * @param src  the encoded samples
+     * @param srcPosition  position of the first byte
+     * @param dest  the decoded samples
+     * @param destOffset  where to put the first sample
+     * @param numSamples  the number of samples to decode
+     */
+    public static void decode(byte[] src, int srcPosition,
+        short[] dest, int destOffset, int numSamples)
+    {
+        for (int i=0; i<numSamples; i++) {
+            dest[destOffset + i] = (short)(
+                ((src[srcPosition + 2*i + 1] & 0xff) << 8) |
+                (src[srcPosition + 2*i] & 0xff));
+        }
+    }
+
+
+    /**
+     * Encodes samples from a short array into a byte array in
+     * 16-bit, signed, little-endian format.
+     * @param src  the decoded samples
+     * @param srcOffset  where the first sample is
+     * @param dest  the encoded samples
+     * @param destPosition  position of the first byte
+     * @param numSamples  the number of samples to encode
+     */
+    public static void encode(short[] src, int srcOffset,
+        byte[] dest, int destPosition, int numSamples)
+    {
+        for (int i=0; i<numSamples; i++) {
+            short sample = src[srcOffset + i];
+            dest[destPosition + 2*i] = (byte)sample;
+            dest[destPosition + 2*i + 1] = (byte)(sample >> 8);
+        }
+    }
+
 }
@@ -1,41 +1,102 @@
 package com.brackeen.javagamebook.sound;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import javax.sound.sampled.*;
-import javax.sound.midi.*;
 import com.brackeen.javagamebook.util.ThreadPool;
 import com.brackeen.javagamebook.util.LoopingByteInputStream;
 import java.net.URL;
 
 
 /**
- * The SoundManager class manages sound playback. The
- * SoundManager is a ThreadPool, with each thread playing back
- * one sound at a time. This allows the SoundManager to
- * easily limit the number of simultaneous sounds being played.
+ * The SoundManager class manages sound playback. Sounds are
+ * played by a software mixer: a single, high-priority thread
+ * sums every playing sound (Voice) into one buffer and writes
+ * it to a single line. Only one line and one thread are used,
+ * no matter how many sounds play at once.
+ * <p>The SoundManager is a ThreadPool of one thread, which runs
+ * the mixer. The playback format must be 16-bit, signed,
+ * little-endian PCM.
  * <p>Possible ideas to extend this class:<ul>
- * <li>add a setMasterVolume() method, which uses Controls to
- *    set the volume for each line.
+ * <li>add a setMasterVolume() method, which scales the mix
  * <li>don't play a sound if more than, say, 500ms has passed
  *    since the request to play
  * </ul>
+ * <p>Playback is measured by an AudioMetrics (see
+ * getMetrics()).
+ * <p>If the null sink is on (see setNullSink()), sounds are
+ * read and mixed as usual, at their normal pace, but no
+ * audio line is opened and nothing is heard. This lets the
+ * game run on machines without a sound device.
  */
 public class SoundManager extends ThreadPool {
 
+    // simultaneous sounds played by the null sink
+    private static final int NULL_SINK_SOUNDS = 8;
+
+    // voices mixed if no limit is given
+    private static final int DEFAULT_MAX_VOICES = 16;
+
+    // length of each mixed buffer, in milliseconds
+    private static final int MIX_MILLIS = 20;
+
+    // number of mixed buffers the line holds
+    private static final int LINE_BUFFERS = 4;
+
+    /**
+     * Steal policy: a new sound takes the voice of the oldest
+     * sound with the lowest priority.
+     */
+    public static final int STEAL_OLDEST = 0;
+
+    /**
+     * Steal policy: a new sound takes the voice of the quietest
+     * sound with the lowest priority.
+     */
+    public static final int STEAL_QUIETEST = 1;
+
+    private static volatile boolean nullSink;
+
     private AudioFormat playbackFormat;
-    private ThreadLocal localLine;
-    private ThreadLocal localBuffer;
+    private int maxVoices;
+    private int stealPolicy;
+    private long voiceSerial;
+    private AudioMetrics metrics;
+    private ArrayList<Voice> voices;
     private Object pausedLock;
-    private boolean paused;
+    private volatile boolean paused;
+    private volatile boolean closed;
+    private boolean initialized;
+    private SourceDataLine line;
 
     /**
-     * Creates a new SoundManager using the maximum number of
-     * simultaneous sounds.
+     * Creates a new SoundManager that mixes up to a default
+     * number of simultaneous sounds.
      * @param playbackFormat 
      */
     public SoundManager(AudioFormat playbackFormat) {
-        this(playbackFormat,
-            getMaxSimultaneousSounds(playbackFormat));
+        this(playbackFormat, DEFAULT_MAX_VOICES);
+    }
+
+
+    /**
+     * Sets whether sound goes to a null sink instead of the
+     * sound device. This affects SoundManagers, SoundClips and
+     * MidiPlayers created afterwards.
+     * @param nullSink  true to discard all audio
+     */
+    public static void setNullSink(boolean nullSink) {
+        SoundManager.nullSink = nullSink;
+    }
+
+
+    /**
+     * Returns whether sound goes to a null sink.
+     * @return true if all audio is discarded
+     */
+    public static boolean isNullSink() {
+        return nullSink;
     }
 
 
@@ -48,28 +109,44 @@ public class SoundManager extends ThreadPool {
     public SoundManager(AudioFormat playbackFormat,
         int maxSimultaneousSounds)
     {
-        super(Math.min(maxSimultaneousSounds,
-            getMaxSimultaneousSounds(playbackFormat)));
+        super(1);
+        if (playbackFormat.getSampleSizeInBits() != 16 ||
+            playbackFormat.isBigEndian() ||
+            !AudioFormat.Encoding.PCM_SIGNED.equals(
+                playbackFormat.getEncoding()))
+        {
+            throw new IllegalArgumentException(
+                "Playback format must be 16-bit signed little-endian");
+        }
         this.playbackFormat = playbackFormat;
-        localLine = new ThreadLocal();
-        localBuffer = new ThreadLocal();
+        maxVoices = Math.max(1, maxSimultaneousSounds);
+        voices = new ArrayList<Voice>();
+        metrics = new AudioMetrics();
         pausedLock = new Object();
-        // notify threads in pool it's ok to start
+
+        // notify the pooled thread it's ok to start, and start
+        // mixing
         synchronized (this) {
+            initialized = true;
             notifyAll();
         }
+        runTask(new VoiceMixer());
     }
 
 
     /**
-     * Gets the maximum number of simultaneous sounds with the
-     * specified AudioFormat that the default mixer can play.
+     * Gets the maximum number of lines with the specified
+     * AudioFormat that the default mixer can open. The
+     * SoundManager only needs one.
      * @param playbackFormat  the audio format
-     * @return the maximum number of simultaneous sounds
+     * @return the maximum number of lines
      */
     public static int getMaxSimultaneousSounds(
         AudioFormat playbackFormat)
     {
+        if (nullSink) {
+            return NULL_SINK_SOUNDS;
+        }
         DataLine.Info lineInfo = new DataLine.Info(
             SourceDataLine.class, playbackFormat);
         Mixer mixer = AudioSystem.getMixer(null);
@@ -77,17 +154,91 @@ public class SoundManager extends ThreadPool {
     }
 
 
+    /**
+     * Gets the maximum number of sounds this SoundManager mixes
+     * at once.
+     * @return the maximum number of voices
+     */
+    public int getMaxVoices() {
+        return maxVoices;
+    }
+
+
+    /**
+     * Gets the number of sounds playing.
+     * @return the number of voices
+     */
+    public int getVoiceCount() {
+        synchronized (voices) {
+            return voices.size();
+        }
+    }
+
+
+    /**
+     * Sets which voice a new sound takes when every voice is
+     * playing: the oldest (STEAL_OLDEST, the default) or the
+     * quietest (STEAL_QUIETEST) of the voices with the lowest
+     * priority. Only voices with a lower priority than the new
+     * sound can be taken; otherwise the new sound is dropped.
+     * @param stealPolicy  STEAL_OLDEST or STEAL_QUIETEST
+     */
+    public void setStealPolicy(int stealPolicy) {
+        synchronized (voices) {
+            this.stealPolicy = stealPolicy;
+        }
+    }
+
+
+    /**
+     * Gets the steal policy.
+     * @return STEAL_OLDEST or STEAL_QUIETEST
+     */
+    public int getStealPolicy() {
+        synchronized (voices) {
+            return stealPolicy;
+        }
+    }
+
+
+    /**
+     * Gets the number of sounds dropped because every voice was
+     * playing a sound of the same or higher priority.
+     * @return the number of dropped sounds
+     */
+    public int getDroppedCount() {
+        return metrics.getDroppedCount();
+    }
+
+
+    /**
+     * Gets the number of voices stopped to play a sound with a
+     * higher priority.
+     * @return the number of stolen voices
+     */
+    public int getStolenCount() {
+        return metrics.getStolenCount();
+    }
+
+
+    /**
+     * Gets the playback metrics of this SoundManager.
+     * @return the metrics
+     */
+    public AudioMetrics getMetrics() {
+        return metrics;
+    }
+
+
     /**
      * Does any clean up before closing.
      */
     protected void cleanUp() {
-        // signal to unpause
+        // signal to unpause, and stop mixing
+        closed = true;
         setPaused(false);
-
-        // close the mixer (stops any running sounds)
-        Mixer mixer = AudioSystem.getMixer(null);
-        if (mixer.isOpen()) {
-            mixer.close();
+        synchronized (voices) {
+            voices.notifyAll();
         }
     }
 
@@ -136,12 +287,14 @@ public class SoundManager extends ThreadPool {
 
     /**
      * Loads a Sound from the file system. Returns null if an
-     * error occurs.
+     * error occurs. Sounds are kept in the process-wide
+     * SoundCache, so a sound is only decoded the first time it
+     * is loaded.
      * @param filename  the name of the sound file
      * @return the loaded sound
      */
     public Sound getSound(String filename) {
-        return getSound(getAudioInputStream(filename));
+        return SoundCache.getInstance().get(filename, playbackFormat);
     }
 
 
@@ -195,6 +348,9 @@ public class SoundManager extends ThreadPool {
     public AudioInputStream getAudioInputStream(String filename) {
         try {
             URL urlSound = SoundManager.class.getResource(filename);
+            if (urlSound == null) {
+                throw new FileNotFoundException(filename);
+            }
             return getAudioInputStream(
                 urlSound.openStream());
         }
@@ -242,23 +398,45 @@ public class SoundManager extends ThreadPool {
     /**
      * Plays a sound. This method returns immediately.
      * @param sound  the sound to be played
-     * @return the played sound
+     * @return the Voice playing the sound
      */
-    public InputStream play(Sound sound) {
+    public Voice play(Sound sound) {
         return play(sound, null, false);
     }
 
 
     /**
      * Plays a sound with an optional SoundFilter, and optionally
-     * looping. This method returns immediately.
+     * looping, with the default priority. This method returns
+     * immediately.
      * @param sound  the sound to be played
      * @param filter  the sound filter
      * @param loop  if the sound will be looped or not
-     * @return the played sound
+     * @return the Voice playing the sound, or null if the sound
+     * is null
      */
-    public InputStream play(Sound sound, SoundFilter filter,
+    public Voice play(Sound sound, SoundFilter filter,
         boolean loop)
+    {
+        return play(sound, filter, loop, Sound.DEFAULT_PRIORITY);
+    }
+
+
+    /**
+     * Plays a sound with an optional SoundFilter, optionally
+     * looping, with the specified priority. This method returns
+     * immediately. Sounds with a higher priority can take the
+     * voices of sounds with a lower one (see
+     * play(InputStream, SoundFilter, int)).
+     * @param sound  the sound to be played
+     * @param filter  the sound filter
+     * @param loop  if the sound will be looped or not
+     * @param priority  the priority of the sound
+     * @return the Voice playing the sound, or null if the sound
+     * is null
+     */
+    public Voice play(Sound sound, SoundFilter filter,
+        boolean loop, int priority)
     {
         InputStream is;
         if (sound != null) {
@@ -270,7 +448,7 @@ public class SoundManager extends ThreadPool {
                 is = new ByteArrayInputStream(sound.getSamples());
             }
 
-            return play(is, filter);
+            return play(is, filter, priority);
         }
         return null;
     }
@@ -280,51 +458,135 @@ public class SoundManager extends ThreadPool {
      * Plays a sound from an InputStream. This method
      * returns immediately.
      * @param is  the input stream
-     * @return the played sound
+     * @return the Voice playing the sound
      */
-    public InputStream play(InputStream is) {
+    public Voice play(InputStream is) {
         return play(is, null);
     }
 
 
     /**
      * Plays a sound from an InputStream with an optional
-     * sound filter. This method returns immediately.
+     * sound filter and the default priority. This method
+     * returns immediately.
+     * @param is  the input stream of the sound to be played
+     * @param filter  the sound filter
+     * @return the Voice playing the sound, or null if the
+     * stream is null
+     * @throws IllegalStateException if this SoundManager is
+     * closed
+     */
+    public Voice play(InputStream is, SoundFilter filter) {
+        return play(is, filter, Sound.DEFAULT_PRIORITY);
+    }
+
+
+    /**
+     * Plays a sound from an InputStream with an optional
+     * sound filter. This method returns immediately. If the
+     * maximum number of sounds are already playing, the sound
+     * steals a voice with a lower priority (see
+     * setStealPolicy()). If there is none, the sound is
+     * dropped, and the returned Voice is not playing.
      * @param is  the input stream of the sound to be played
      * @param filter  the sound filter
-     * @return the played sound
+     * @param priority  the priority of the sound
+     * @return the Voice playing the sound, or null if the
+     * stream is null
+     * @throws IllegalStateException if this SoundManager is
+     * closed
      */
-    public InputStream play(InputStream is, SoundFilter filter) {
-        if (is != null) {
-            if (filter != null) {
-                is = new FilteredSoundStream(is, filter);
+    public Voice play(InputStream is, SoundFilter filter,
+        int priority)
+    {
+        if (is == null) {
+            return null;
+        }
+        if (closed) {
+            throw new IllegalStateException();
+        }
+        if (filter != null) {
+            is = new FilteredSoundStream(is, filter);
+        }
+        synchronized (voices) {
+            Voice voice = new Voice(is, priority, voiceSerial++);
+            if (voices.size() >= maxVoices) {
+                Voice victim = findVictim(priority);
+                if (victim == null) {
+                    metrics.voiceDropped();
+                    voice.stop();
+                    return voice;
+                }
+                victim.stop();
+                voices.remove(victim);
+                metrics.voiceStolen();
             }
-            runTask(new SoundPlayer(is));
+            voices.add(voice);
+            voices.notifyAll();
+            return voice;
         }
-        return is;
     }
 
 
     /**
-     * Signals that a PooledThread has started. Creates the
-     * Thread's line and buffer.
+     * Finds the voice a sound with the specified priority can
+     * steal: of the voices with the lowest priority, the oldest
+     * or quietest. Returns null if no voice has a lower
+     * priority. The voices lock must be held.
+     */
+    private Voice findVictim(int priority) {
+        Voice victim = null;
+        for (int i=0; i<voices.size(); i++) {
+            Voice voice = voices.get(i);
+            if (voice.getPriority() >= priority) {
+                continue;
+            }
+            if (victim == null ||
+                voice.getPriority() < victim.getPriority() ||
+                (voice.getPriority() == victim.getPriority() &&
+                isBetterVictim(voice, victim)))
+            {
+                victim = voice;
+            }
+        }
+        return victim;
+    }
+
+
+    private boolean isBetterVictim(Voice voice, Voice victim) {
+        if (stealPolicy == STEAL_QUIETEST &&
+            voice.getGain() != victim.getGain())
+        {
+            return voice.getGain() < victim.getGain();
+        }
+        return voice.getSerial() < victim.getSerial();
+    }
+
+
+    /**
+     * Signals that a PooledThread has started. Opens the line
+     * the mixer writes to, and raises the thread's priority.
      */
     protected void threadStarted() {
         // wait for the SoundManager constructor to finish
         synchronized (this) {
-            try {
-                wait();
+            while (!initialized) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException ex) {
+                    return;
+                }
             }
-            catch (InterruptedException ex) { }
         }
-
-        // use a short, 100ms (1/10th sec) buffer for filters that
-        // change in real-time
-        int bufferSize = playbackFormat.getFrameSize() *
-            Math.round(playbackFormat.getSampleRate() / 10);
+        Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+        if (nullSink) {
+            // no line; the mixer discards the samples
+            return;
+        }
 
         // create, open, and start the line
-        SourceDataLine line;
+        int bufferSize = LINE_BUFFERS * getMixBufferSize();
         DataLine.Info lineInfo = new DataLine.Info(
             SourceDataLine.class, playbackFormat);
         try {
@@ -332,86 +594,196 @@ public class SoundManager extends ThreadPool {
             line.open(playbackFormat, bufferSize);
         }
         catch (LineUnavailableException ex) {
-            // the line is unavailable - signal to end this thread
-            Thread.currentThread().interrupt();
+            // the line is unavailable - the mixer discards the
+            // samples
+            line = null;
+            return;
+        }
+        catch (IllegalArgumentException ex) {
+            line = null;
             return;
         }
 
         line.start();
-
-        // create the buffer
-        byte[] buffer = new byte[bufferSize];
-
-        // set this thread's locals
-        localLine.set(line);
-        localBuffer.set(buffer);
     }
 
 
     /**
      * Signals that a PooledThread has stopped. Drains and
-     * closes the Thread's Line.
+     * closes the line.
      */
     protected void threadStopped() {
-        SourceDataLine line = (SourceDataLine)localLine.get();
         if (line != null) {
             line.drain();
             line.close();
+            line = null;
         }
     }
 
 
     /**
-     * The SoundPlayer class is a task for the PooledThreads to
-     * run. It receives the threads's Line and byte buffer from
-     * the ThreadLocal variables and plays a sound from an
-     * InputStream.
-     * <p>This class only works when called from a PooledThread.
+     * Gets the size, in bytes, of each mixed buffer.
      */
-    protected class SoundPlayer implements Runnable {
+    private int getMixBufferSize() {
+        return playbackFormat.getFrameSize() *
+            Math.round(playbackFormat.getFrameRate() * MIX_MILLIS / 1000);
+    }
 
-        private InputStream source;
 
-        public SoundPlayer(InputStream source) {
-            this.source = source;
+    /**
+     * The VoiceMixer class is the task the SoundManager's thread
+     * runs until the SoundManager is closed. It sums the
+     * playing Voices into one buffer at a time, clips the sum,
+     * and writes it to the line.
+     */
+    protected class VoiceMixer implements Runnable {
+
+        private int[] mix;
+        private short[] samples;
+        private byte[] buffer;
+        private byte[] output;
+        private Voice[] active;
+        // false after the line is left idle, so draining isn't
+        // counted as an underrun
+        private boolean lineFed;
+
+        public VoiceMixer() {
+            int bufferSize = getMixBufferSize();
+            mix = new int[bufferSize / 2];
+            samples = new short[bufferSize / 2];
+            buffer = new byte[bufferSize];
+            output = new byte[bufferSize];
+            active = new Voice[maxVoices];
         }
 
         public void run() {
-            // get line and buffer from ThreadLocals
-            SourceDataLine line = (SourceDataLine)localLine.get();
-            byte[] buffer = (byte[])localBuffer.get();
-            if (line == null || buffer == null) {
-                // the line is unavailable
-                return;
+            try {
+                while (!closed) {
+                    int count = waitForVoices();
+                    if (count == 0) {
+                        break;
+                    }
+                    waitWhilePaused();
+                    mixVoices(count);
+                    write();
+                    voicesWritten(count);
+                }
             }
+            catch (InterruptedException ex) {
+                // closed
+            }
+        }
 
-            // copy data to the line
-            try {
-                int numBytesRead = 0;
-                while (numBytesRead != -1) {
-                    // if paused, wait until unpaused
-                    synchronized (pausedLock) {
-                        if (paused) {
-                            try {
-                                pausedLock.wait();
-                            }
-                            catch (InterruptedException ex) {
-                                return;
-                            }
+
+        /**
+         * Waits until there are voices to mix, and copies them
+         * to the active array. Returns 0 if closed.
+         */
+        private int waitForVoices() throws InterruptedException {
+            synchronized (voices) {
+                if (voices.isEmpty()) {
+                    lineFed = false;
+                }
+                while (voices.isEmpty() && !closed) {
+                    voices.wait();
+                }
+                if (closed) {
+                    return 0;
+                }
+                int count = voices.size();
+                if (active.length < count) {
+                    active = new Voice[count];
+                }
+                for (int i=0; i<count; i++) {
+                    active[i] = voices.get(i);
+                }
+                return count;
+            }
+        }
+
+
+        /**
+         * Waits until the SoundManager is unpaused.
+         */
+        private void waitWhilePaused() throws InterruptedException {
+            synchronized (pausedLock) {
+                if (paused) {
+                    lineFed = false;
+                }
+                while (paused && !closed) {
+                    pausedLock.wait();
+                }
+            }
+        }
+
+
+        /**
+         * Sums the active voices, and removes the ones that
+         * stopped.
+         */
+        private void mixVoices(int count) {
+            Arrays.fill(mix, 0);
+            boolean anyStopped = false;
+            for (int i=0; i<count; i++) {
+                if (!active[i].mix(mix, samples, buffer, mix.length)) {
+                    anyStopped = true;
+                }
+            }
+            if (anyStopped) {
+                synchronized (voices) {
+                    for (int i=0; i<count; i++) {
+                        if (!active[i].isPlaying()) {
+                            voices.remove(active[i]);
                         }
                     }
-                    // copy data
-                    numBytesRead =
-                        source.read(buffer, 0, buffer.length);
-                    if (numBytesRead != -1) {
-                        line.write(buffer, 0, numBytesRead);
-                    }
                 }
             }
-            catch (IOException ex) {
-                ex.printStackTrace();
+        }
+
+
+        /**
+         * Records the start latency of voices whose first
+         * samples were just written, and clears the active
+         * array.
+         */
+        private void voicesWritten(int count) {
+            long now = System.nanoTime();
+            for (int i=0; i<count; i++) {
+                if (active[i].isStarting()) {
+                    metrics.voiceStarted(active[i].started(now));
+                }
+                active[i] = null;
             }
+            metrics.bufferMixed(output.length, now);
+        }
+
 
+        /**
+         * Clips the mix to 16 bits and writes it out.
+         */
+        private void write() throws InterruptedException {
+            for (int i=0; i<mix.length; i++) {
+                int sample = mix[i];
+                if (sample > Short.MAX_VALUE) {
+                    sample = Short.MAX_VALUE;
+                }
+                else if (sample < Short.MIN_VALUE) {
+                    sample = Short.MIN_VALUE;
+                }
+                output[2*i] = (byte)sample;
+                output[2*i+1] = (byte)(sample >> 8);
+            }
+
+            if (line != null) {
+                metrics.lineChecked(line.available(),
+                    line.getBufferSize(), lineFed);
+                line.write(output, 0, output.length);
+                lineFed = true;
+            }
+            else {
+                // null sink: take as long as playing would
+                Thread.sleep(MIX_MILLIS);
+            }
         }
     }
 
@@ -0,0 +1,260 @@
+package com.brackeen.javagamebook.sound;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The Voice class is a handle to a sound being played by a
+ * SoundManager. The SoundManager's mixer reads the sound from
+ * its InputStream, scales it by the voice's gain, and adds it
+ * to the other voices.
+ * <p>Samples are 16-bit, signed, little-endian, in the
+ * SoundManager's playback format.
+ */
+public class Voice {
+
+    private InputStream source;
+    private int priority;
+    private long serial;
+    private long playTime;
+    private boolean mixed;
+    private volatile long startLatency;
+    private volatile float gain;
+    private volatile boolean playing;
+    private volatile boolean paused;
+
+    /**
+     * Creates a new Voice that plays the specified stream.
+     * @param source  the samples to play
+     * @param priority  the priority of the sound
+     * @param serial  the order the Voice was started in
+     */
+    Voice(InputStream source, int priority, long serial) {
+        this.source = source;
+        this.priority = priority;
+        this.serial = serial;
+        playTime = System.nanoTime();
+        startLatency = -1;
+        gain = 1;
+        playing = true;
+    }
+
+
+    /**
+     * Stops this Voice. It is removed from the mix before the
+     * next buffer.
+     */
+    public void stop() {
+        playing = false;
+    }
+
+
+    /**
+     * Returns whether this Voice is still playing: it hasn't
+     * been stopped, and its sound hasn't ended.
+     * @return true if playing
+     */
+    public boolean isPlaying() {
+        return playing;
+    }
+
+
+    /**
+     * Pauses or resumes this Voice. A paused Voice keeps its
+     * place in the sound, but isn't read or heard.
+     * @param paused  true to pause, false to resume
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+
+    /**
+     * Returns whether this Voice is paused.
+     * @return true if paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+
+    /**
+     * Sets the gain (volume) of this Voice, from 0 (silent) up.
+     * 1 plays the sound unchanged. The mix is clipped if it
+     * gets too loud.
+     * @param gain  the gain
+     */
+    public void setGain(float gain) {
+        this.gain = Math.max(0, gain);
+    }
+
+
+    /**
+     * Gets the gain (volume) of this Voice.
+     * @return the gain
+     */
+    public float getGain() {
+        return gain;
+    }
+
+
+    /**
+     * Gets the priority of this Voice. Voices can be stolen by
+     * sounds with a higher priority.
+     * @return the priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+
+    /**
+     * Gets the order this Voice was started in; older Voices
+     * have lower serial numbers.
+     */
+    long getSerial() {
+        return serial;
+    }
+
+
+    /**
+     * Gets the time from when this Voice was played to when its
+     * first samples were written to the line.
+     * @return the latency, in nanoseconds, or -1 if no samples
+     * have been written yet
+     */
+    public long getStartLatency() {
+        return startLatency;
+    }
+
+
+    /**
+     * Returns whether samples of this Voice have been mixed, but
+     * its start latency isn't known yet.
+     */
+    boolean isStarting() {
+        return mixed && startLatency < 0;
+    }
+
+
+    /**
+     * Signals that the first samples of this Voice were written
+     * to the line.
+     * @param now  the time they were written, from
+     * System.nanoTime()
+     * @return the start latency
+     */
+    long started(long now) {
+        startLatency = now - playTime;
+        return startLatency;
+    }
+
+
+    /**
+     * Gets the stream this Voice plays.
+     * @return the source stream
+     */
+    public InputStream getSource() {
+        return source;
+    }
+
+
+    /**
+     * Reads the next samples of this Voice and adds them, scaled
+     * by the gain, to the mix. If the sound ends, the rest of
+     * the mix is left alone and this Voice stops. A paused Voice
+     * adds nothing.
+     * <p>Filtered sounds are read from their FilteredSoundStream
+     * already decoded, so they aren't encoded and decoded again.
+     * @param mix  the mix, one int per sample
+     * @param samples  a buffer of at least numSamples samples
+     * @param buffer  a buffer of at least 2 * numSamples bytes
+     * @param numSamples  the number of samples to mix
+     * @return true if this Voice is still playing
+     */
+    boolean mix(int[] mix, short[] samples, byte[] buffer,
+        int numSamples)
+    {
+        if (!playing) {
+            return false;
+        }
+        if (paused) {
+            return true;
+        }
+
+        // fill the buffer, unless the sound ends
+        int samplesRead = 0;
+        try {
+            if (source instanceof FilteredSoundStream) {
+                samplesRead = read((FilteredSoundStream)source,
+                    samples, numSamples);
+            }
+            else {
+                samplesRead = read(buffer, numSamples * 2) / 2;
+                SoundFilter.decode(buffer, 0, samples, 0,
+                    samplesRead);
+            }
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+            playing = false;
+        }
+
+        // add the samples to the mix
+        if (samplesRead > 0) {
+            mixed = true;
+        }
+        float g = gain;
+        if (g == 1) {
+            for (int i=0; i<samplesRead; i++) {
+                mix[i] += samples[i];
+            }
+        }
+        else {
+            for (int i=0; i<samplesRead; i++) {
+                mix[i] += (int)(g * samples[i]);
+            }
+        }
+        return playing;
+    }
+
+
+    /**
+     * Reads up to length bytes from the source, stopping this
+     * Voice if the sound ends.
+     */
+    private int read(byte[] buffer, int length) throws IOException {
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            int count = source.read(buffer, bytesRead,
+                length - bytesRead);
+            if (count == -1) {
+                playing = false;
+                break;
+            }
+            bytesRead += count;
+        }
+        return bytesRead;
+    }
+
+
+    /**
+     * Reads up to length decoded samples from a filtered source,
+     * stopping this Voice if the sound ends.
+     */
+    private int read(FilteredSoundStream source, short[] samples,
+        int length) throws IOException
+    {
+        int samplesRead = 0;
+        while (samplesRead < length) {
+            int count = source.read(samples, samplesRead,
+                length - samplesRead);
+            if (count == -1) {
+                playing = false;
+                break;
+            }
+            samplesRead += count;
+        }
+        return samplesRead;
+    }
+}
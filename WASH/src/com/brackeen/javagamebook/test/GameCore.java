@@ -49,9 +49,36 @@ public abstract class GameCore {
         new DisplayMode(1024, 768, 24, 0),
     };
 
+    // most ticks run in one frame before the game gives up
+    // catching up (for example, after a long pause)
+    private static final int DEFAULT_MAX_TICKS_PER_FRAME = 5;
+
+    // tick length used in headless mode if no tick rate is set
+    private static final long DEFAULT_HEADLESS_TICK_MILLIS = 10;
+
+    // size of the offscreen image drawn to in headless mode
+    private static final int HEADLESS_WIDTH = 800;
+    private static final int HEADLESS_HEIGHT = 600;
+
+    // how often headless mode reports the tick rate
+    private static final long REPORT_NANOS = 5000000000L;
+
     private boolean isRunning;
     public static ScreenManager screen;
 
+    // length of a simulation tick, or 0 to update once per frame
+    private long tickMillis;
+    private int maxTicksPerFrame = DEFAULT_MAX_TICKS_PER_FRAME;
+    // shortest time between frames, or 0 for no frame cap
+    private long frameNanos;
+
+    // headless mode
+    private boolean headless;
+    private boolean drawing = true;
+    private boolean realTime;
+    private long maxTicks;
+    private long tickCount;
+
 
     /**
      *Signals the game loop that it's time to quit
@@ -100,11 +127,79 @@ public abstract class GameCore {
     }
 
 
+    /**
+     *Sets whether the game runs headless: drawing to an
+     *offscreen image instead of a full screen window, and
+     *running update() as fast as possible with a simulated
+     *clock (see setRealTime()). The tick rate is reported to
+     *System.out every few seconds and when the game stops. Must
+     *be called before run().
+     * @param headless  true to run without a display
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+
+    /**
+     *Returns whether the game runs headless.
+     * @return true if running without a display
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
+
+    /**
+     *Sets whether draw() is called. In headless mode, turning
+     *drawing off measures the simulation on its own.
+     * @param drawing  false to never draw
+     */
+    public void setDrawing(boolean drawing) {
+        this.drawing = drawing;
+    }
+
+
+    /**
+     *Sets whether headless mode follows the real clock (like
+     *the normal game loop) instead of running ticks back to
+     *back as fast as possible.
+     * @param realTime  true to follow the real clock
+     */
+    public void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+
+    /**
+     *Sets the number of updates after which the game loop
+     *stops, or 0 to run until stop() is called.
+     * @param maxTicks  the number of updates to run
+     */
+    public void setMaxTicks(long maxTicks) {
+        this.maxTicks = maxTicks;
+    }
+
+
+    /**
+     *Gets the number of times update() has been called.
+     * @return the number of updates
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+
     /**
      *Sets full screen mode and initiates and objects.
      */
     public void init() {
         screen = new ScreenManager();
+        if (headless) {
+            screen.setOffscreen(HEADLESS_WIDTH, HEADLESS_HEIGHT);
+            isRunning = true;
+            return;
+        }
         DisplayMode displayMode =
             screen.findFirstCompatibleMode(POSSIBLE_MODES);
         screen.setFullScreen(displayMode);
@@ -123,33 +218,205 @@ public abstract class GameCore {
     }
 
 
+    /**
+     *Sets the number of simulation ticks per second. When set,
+     *update() is always called with the same elapsed time, as
+     *many times as needed to keep up with the clock, and draw()
+     *is passed how far the clock is into the next tick. The
+     *tick length is rounded to whole milliseconds. A rate of 0
+     *calls update() once per frame with the real elapsed time.
+     * @param ticksPerSecond  the tick rate, or 0 for none
+     */
+    public void setTickRate(int ticksPerSecond) {
+        if (ticksPerSecond <= 0) {
+            tickMillis = 0;
+        }
+        else {
+            tickMillis = Math.max(1,
+                Math.round(1000f / ticksPerSecond));
+        }
+    }
+
+
+    /**
+     *Gets the length of a simulation tick, in milliseconds, or
+     *0 if update() is called once per frame.
+     * @return the tick length
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+
+    /**
+     *Sets the most simulation ticks run in a single frame. If
+     *the game falls further behind than that, the extra time is
+     *dropped and the game slows down instead of stalling.
+     * @param maxTicksPerFrame  the most ticks per frame
+     */
+    public void setMaxTicksPerFrame(int maxTicksPerFrame) {
+        this.maxTicksPerFrame = Math.max(1, maxTicksPerFrame);
+    }
+
+
+    /**
+     *Sets the most frames drawn per second. The game loop
+     *sleeps for the rest of each frame. A rate of 0 draws as
+     *fast as possible.
+     * @param framesPerSecond  the frame cap, or 0 for none
+     */
+    public void setFrameRate(int framesPerSecond) {
+        if (framesPerSecond <= 0) {
+            frameNanos = 0;
+        }
+        else {
+            frameNanos = 1000000000L / framesPerSecond;
+        }
+    }
+
+
     /**
      *Runs through the game loop until stop() is called.
      */
     public void gameLoop() {
-        long startTime = System.currentTimeMillis();
-        long currTime = startTime;
+        if (headless && !realTime) {
+            headlessLoop();
+            return;
+        }
+
+        long currTime = System.nanoTime();
+        long accumulator = 0;
+        long startTime = currTime;
+        long reportTime = currTime;
+        long reportTicks = 0;
 
         while (isRunning) {
-            long elapsedTime =
-                System.currentTimeMillis() - currTime;
-            currTime += elapsedTime;
+            long frameStart = System.nanoTime();
+            long elapsedNanos = frameStart - currTime;
+            currTime = frameStart;
 
-            // update
-            update(elapsedTime);
+            float alpha;
+            if (tickMillis == 0) {
+                // update once, with the real elapsed time
+                accumulator += elapsedNanos;
+                long elapsedTime = accumulator / 1000000;
+                accumulator -= elapsedTime * 1000000;
+                tick(elapsedTime);
+                alpha = 1;
+            }
+            else {
+                // run as many fixed ticks as the clock needs
+                long tickNanos = tickMillis * 1000000;
+                accumulator += elapsedNanos;
+                int ticks = 0;
+                while (isRunning && accumulator >= tickNanos &&
+                    ticks < maxTicksPerFrame)
+                {
+                    tick(tickMillis);
+                    accumulator -= tickNanos;
+                    ticks++;
+                }
+                if (accumulator >= tickNanos) {
+                    // too far behind; drop the rest
+                    accumulator %= tickNanos;
+                }
+                alpha = (float)accumulator / tickNanos;
+            }
 
             // draw the screen
-            Graphics2D g = screen.getGraphics();
-            draw(g);
-            g.dispose();
-            screen.update();
-
-            // don't take a nap! run as fast as possible
-            /*try {
-                Thread.sleep(20);
+            if (drawing) {
+                Graphics2D g = screen.getGraphics();
+                draw(g, alpha);
+                g.dispose();
+                screen.update();
+            }
+
+            if (headless &&
+                System.nanoTime() - reportTime >= REPORT_NANOS)
+            {
+                reportTicks(tickCount - reportTicks,
+                    System.nanoTime() - reportTime);
+                reportTime = System.nanoTime();
+                reportTicks = tickCount;
+            }
+
+            // sleep for the rest of the frame, if capped
+            if (frameNanos > 0) {
+                long sleepNanos =
+                    frameNanos - (System.nanoTime() - frameStart);
+                if (sleepNanos > 0) {
+                    try {
+                        Thread.sleep(sleepNanos / 1000000,
+                            (int)(sleepNanos % 1000000));
+                    }
+                    catch (InterruptedException ex) { }
+                }
+            }
+        }
+
+        if (headless) {
+            reportTicks(tickCount, System.nanoTime() - startTime);
+        }
+    }
+
+
+    /**
+     *Runs the game loop without a real clock: each update()
+     *gets one tick's worth of time, and ticks run back to back
+     *as fast as possible.
+     */
+    private void headlessLoop() {
+        long elapsedTime = (tickMillis > 0) ?
+            tickMillis : DEFAULT_HEADLESS_TICK_MILLIS;
+        long startTime = System.nanoTime();
+        long reportTime = startTime;
+        long reportTicks = 0;
+
+        while (isRunning) {
+            tick(elapsedTime);
+
+            if (drawing) {
+                Graphics2D g = screen.getGraphics();
+                draw(g, 1);
+                g.dispose();
+                screen.update();
+            }
+
+            long now = System.nanoTime();
+            if (now - reportTime >= REPORT_NANOS) {
+                reportTicks(tickCount - reportTicks, now - reportTime);
+                reportTime = now;
+                reportTicks = tickCount;
             }
-            catch (InterruptedException ex) { }*/
         }
+
+        reportTicks(tickCount, System.nanoTime() - startTime);
+    }
+
+
+    /**
+     *Calls update() once, and stops the game loop if the
+     *maximum number of ticks has been reached.
+     */
+    private void tick(long elapsedTime) {
+        update(elapsedTime);
+        tickCount++;
+        if (maxTicks > 0 && tickCount >= maxTicks) {
+            stop();
+        }
+    }
+
+
+    /**
+     *Prints the tick rate over a period of time.
+     */
+    private void reportTicks(long ticks, long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        System.out.println("ticks: " + ticks + " in " +
+            (nanos / 1000000) + " ms (" +
+            Math.round(ticks * 1e9 / nanos) + " ticks/sec)");
     }
 
 
@@ -169,4 +436,18 @@ public abstract class GameCore {
      * @param g  Graphics2D
      */
     public abstract void draw(Graphics2D g);
+
+
+    /**
+     *Draws to the screen when the clock is part of the way
+     *into the next simulation tick. Subclasses that interpolate
+     *moving objects override this method; by default it calls
+     *draw(g).
+     * @param g  Graphics2D
+     * @param alpha  how far into the next tick the clock is,
+     *from 0 to 1
+     */
+    public void draw(Graphics2D g, float alpha) {
+        draw(g);
+    }
 }
@@ -0,0 +1,164 @@
+package com.brackeen.javagamebook.tilegame;
+
+import java.awt.Image;
+
+import com.brackeen.javagamebook.graphics.Sprite;
+import com.brackeen.javagamebook.util.ThreadPool;
+
+/**
+ * The LevelTemplate class is a compiled map: its tiles, and
+ * where each Sprite starts. It is immutable, and is kept in
+ * memory so a level can be started over without reading or
+ * parsing the map again. The tiles aren't copied out of the
+ * MapFile; they are read a chunk at a time as the TileMap
+ * streams them in.
+ * <p>createMap() creates a streamed TileMap from the template.
+ * A Sprite is cloned for each spawn point when its chunk first
+ * becomes active. reset() puts a TileMap created by the
+ * template back the way it started, reusing the Sprites it
+ * already has: each one is reset and moved back to its spawn
+ * point. Nothing is cloned or allocated.
+ */
+public class LevelTemplate {
+
+    private final MapFile mapFile;
+    private final Image[] palette;
+    private final Sprite[] hosts;
+    private final float[] spawnX;
+    private final float[] spawnY;
+
+    /**
+     * Creates a new LevelTemplate. The arrays are kept, not
+     * copied, and must not be changed.
+     * @param mapFile  the map; tile ids past the end of the
+     * palette are left empty
+     * @param palette  the tile images; id n is palette[n-1]
+     * @param hosts  the "host" Sprite each spawn point clones,
+     * sorted by column
+     * @param spawnX  the x position of each spawn point
+     * @param spawnY  the y position of each spawn point
+     */
+    LevelTemplate(MapFile mapFile, Image[] palette, Sprite[] hosts,
+        float[] spawnX, float[] spawnY)
+    {
+        this.mapFile = mapFile;
+        this.palette = palette;
+        this.hosts = hosts;
+        this.spawnX = spawnX;
+        this.spawnY = spawnY;
+    }
+
+
+    /**
+     * Gets the number of Sprites this template spawns.
+     * @return int
+     */
+    public int getSpawnCount() {
+        return hosts.length;
+    }
+
+
+    /**
+     * Creates a new streamed TileMap from this template. The
+     * player isn't added, and no chunk is resident until the
+     * map's window is set.
+     * @param loader  the thread that loads chunks ahead of time
+     * @return TileMap
+     */
+    public TileMap createMap(ThreadPool loader) {
+        return new TileMap(this, mapFile.getWidth(),
+            mapFile.getHeight(), palette, hosts.length, loader);
+    }
+
+
+    /**
+     * Puts a TileMap created by this template back the way it
+     * started. Sprites added since it was created (like
+     * bullets) are removed; the player isn't changed.
+     * @param map  the map to reset
+     * @throws IllegalArgumentException if the map wasn't
+     * created by this template
+     */
+    public void reset(TileMap map) {
+        if (map.getTemplate() != this) {
+            throw new IllegalArgumentException(
+                "Map wasn't created by this template");
+        }
+        Sprite[] spawned = map.getSpawnedSprites();
+        map.removeAllSprites();
+        for (int i=0; i<spawned.length; i++) {
+            if (spawned[i] != null) {
+                spawned[i].reset();
+                spawned[i].setX(spawnX[i]);
+                spawned[i].setY(spawnY[i]);
+                map.addSprite(spawned[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Reads the tile ids of some columns into an array, row by
+     * row. This may be called by a background thread.
+     * @param firstX  the first column
+     * @param count  the number of columns
+     * @param tiles  the array that receives the ids
+     * @param rowLength  the number of ids in each row of the
+     * array
+     */
+    void loadTiles(int firstX, int count, short[] tiles,
+        int rowLength)
+    {
+        int height = mapFile.getHeight();
+        byte[] column = new byte[height];
+        for (int i=0; i<count; i++) {
+            mapFile.getColumn(firstX + i, column);
+            for (int y=0; y<height; y++) {
+                int id = column[y] & 0xff;
+                if (id <= palette.length) {
+                    tiles[y * rowLength + i] = (short)id;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Clones a Sprite for each spawn point in some columns, and
+     * adds it to a map at its spawn point.
+     * @param map  the map to spawn into
+     * @param firstX  the first column
+     * @param lastX  the last column
+     */
+    void spawn(TileMap map, int firstX, int lastX) {
+        Sprite[] spawned = map.getSpawnedSprites();
+        int end = findSpawn(lastX + 1);
+        for (int i=findSpawn(firstX); i<end; i++) {
+            spawned[i] = (Sprite)hosts[i].clone();
+            spawned[i].setX(spawnX[i]);
+            spawned[i].setY(spawnY[i]);
+            map.addSprite(spawned[i]);
+        }
+    }
+
+
+    /**
+     * Finds the first spawn point at or after a column, by the
+     * center of its Sprite.
+     */
+    private int findSpawn(int x) {
+        int pixelX = TileMapRenderer.tilesToPixels(x);
+        int low = 0;
+        int high = hosts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (spawnX[mid] + hosts[mid].getWidth() / 2 < pixelX) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
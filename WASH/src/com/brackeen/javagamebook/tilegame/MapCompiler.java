@@ -0,0 +1,106 @@
+package com.brackeen.javagamebook.tilegame;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+
+/**
+ * The MapCompiler compiles text maps to the binary map format
+ * (see MapFile). It is run by the build after compiling: every
+ * map*.txt in the directories given on the command line is
+ * compiled to a .map file next to it, unless the .map file is
+ * already newer.
+ * <p>Usage: MapCompiler dir...
+ */
+public class MapCompiler {
+
+    /**
+     * The extension of text maps.
+     */
+    public static final String TEXT_EXTENSION = ".txt";
+
+    /**
+     * The extension of binary maps.
+     */
+    public static final String BINARY_EXTENSION = ".map";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: MapCompiler dir...");
+            System.exit(1);
+        }
+        for (int i=0; i<args.length; i++) {
+            File[] files = new File(args[i]).listFiles();
+            if (files == null) {
+                throw new IOException("Not a directory: " + args[i]);
+            }
+            for (int j=0; j<files.length; j++) {
+                String name = files[j].getName();
+                if (name.startsWith("map") &&
+                    name.endsWith(TEXT_EXTENSION))
+                {
+                    File binary = getBinaryFile(files[j]);
+                    if (binary.lastModified() <= files[j].lastModified()) {
+                        compile(files[j], binary);
+                        System.out.println("Compiled " + binary);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Gets the binary map file for a text map file.
+     * @param textFile  the text map
+     * @return File
+     */
+    public static File getBinaryFile(File textFile) {
+        String name = textFile.getName();
+        name = name.substring(0, name.length() - TEXT_EXTENSION.length());
+        return new File(textFile.getParentFile(), name + BINARY_EXTENSION);
+    }
+
+
+    /**
+     * Compiles a text map to a binary map. The binary map is
+     * written to a temporary file first, so a failed compile
+     * never leaves a truncated map.
+     * @param textFile  the text map
+     * @param binaryFile  the binary map to write
+     * @throws IOException if a map can't be read or written
+     */
+    public static void compile(File textFile, File binaryFile)
+        throws IOException
+    {
+        MapFile map;
+        Reader in = new InputStreamReader(
+            new FileInputStream(textFile), "UTF-8");
+        try {
+            map = MapFile.compile(in);
+        }
+        finally {
+            in.close();
+        }
+
+        File temp = new File(binaryFile.getPath() + ".tmp");
+        OutputStream out = new BufferedOutputStream(
+            new FileOutputStream(temp));
+        try {
+            map.write(out);
+        }
+        finally {
+            out.close();
+        }
+        binaryFile.delete();
+        if (!temp.renameTo(binaryFile)) {
+            throw new IOException("Couldn't rename " + temp +
+                " to " + binaryFile);
+        }
+    }
+}
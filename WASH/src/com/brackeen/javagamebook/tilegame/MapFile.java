@@ -0,0 +1,327 @@
+package com.brackeen.javagamebook.tilegame;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * The MapFile class is a read-only view of a map in the binary
+ * map format. Maps are written as text (see compile()), and
+ * compiled to the binary format by the MapCompiler when the game
+ * is built.
+ * <p>The binary format is big-endian, and has three parts:<ul>
+ * <li>a header: the magic number "WMAP", the version, the width
+ *    and height of the map in tiles, and the number of spawn
+ *    points
+ * <li>the tile plane: one byte per tile, column by column. 0 is
+ *    no tile; 1 is tile A, 2 is tile B, and so on.
+ * <li>the spawn table: for each spawn point, sorted by column,
+ *    its tile x (an int), its tile y (a short), and the map
+ *    character of the Sprite (a short)
+ * </ul>
+ * <p>Nothing is decoded up front: the getters read straight
+ * from the buffer. Map files in the file system are mapped into
+ * memory, so only the parts of the map that are read are ever
+ * loaded.
+ */
+public class MapFile {
+
+    /**
+     * The magic number that starts every map file, "WMAP".
+     */
+    public static final int MAGIC = 0x574D4150;
+
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The characters of the Sprites a map can spawn.
+     */
+    public static final String SPAWN_CHARS = "o!*123";
+
+    private static final int HEADER_SIZE = 20;
+    private static final int SPAWN_SIZE = 8;
+
+    private ByteBuffer buffer;
+    private int width;
+    private int height;
+    private int spawnCount;
+    private int spawnOffset;
+
+    /**
+     * Creates a MapFile that reads a map in the binary format
+     * from a buffer.
+     * @param buffer  the map file
+     * @throws IOException if the buffer isn't a map file
+     */
+    public MapFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate();
+        if (buffer.capacity() < HEADER_SIZE ||
+            this.buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a map file");
+        }
+        int version = this.buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unknown map version: " + version);
+        }
+        width = this.buffer.getInt(8);
+        height = this.buffer.getInt(12);
+        spawnCount = this.buffer.getInt(16);
+        spawnOffset = HEADER_SIZE + width * height;
+        if (width < 0 || height < 0 || spawnCount < 0 ||
+            (long)spawnOffset + (long)spawnCount * SPAWN_SIZE >
+            buffer.capacity())
+        {
+            throw new IOException("Map file is truncated");
+        }
+    }
+
+
+    /**
+     * Opens a map file, mapping it into memory.
+     * @param file  the map file
+     * @return MapFile
+     * @throws IOException if the file can't be read, or isn't a
+     * map file
+     */
+    public static MapFile open(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            // the mapping stays valid after the file is closed
+            return new MapFile(channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Opens a map file from a URL. Files in the file system are
+     * mapped into memory; others (like those in a jar) are read
+     * into a buffer.
+     * @param url  the map file
+     * @return MapFile
+     * @throws IOException if the file can't be read, or isn't a
+     * map file
+     */
+    public static MapFile open(URL url) throws IOException {
+        File file = toFile(url);
+        if (file != null) {
+            return open(file);
+        }
+        InputStream in = url.openStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return new MapFile(ByteBuffer.wrap(bytes.toByteArray()));
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Gets the file of a file: URL, or null if the URL isn't a
+     * file in the file system.
+     * @param url
+     * @return File
+     */
+    static File toFile(URL url) {
+        if (!url.getProtocol().equals("file")) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        }
+        catch (URISyntaxException ex) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Compiles a map from the text format into the binary
+     * format, in memory. In the text format, each line is a row
+     * of tiles; lines that start with '#' are comments. 'A' to
+     * 'Z' are tiles, spaces (and other unknown characters) are
+     * empty, and the characters in SPAWN_CHARS are Sprites.
+     * @param reader  the text of the map
+     * @return MapFile
+     * @throws IOException if the text can't be read
+     */
+    public static MapFile compile(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        ArrayList<String> lines = new ArrayList<String>();
+        int width = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            // add every line except for comments
+            if (!line.startsWith("#")) {
+                lines.add(line);
+                width = Math.max(width, line.length());
+            }
+        }
+        int height = lines.size();
+
+        // the tile plane, and the spawn points in column order
+        byte[] tiles = new byte[width * height];
+        ArrayList<int[]> spawns = new ArrayList<int[]>();
+        for (int x=0; x<width; x++) {
+            for (int y=0; y<height; y++) {
+                String row = lines.get(y);
+                if (x >= row.length()) {
+                    continue;
+                }
+                char ch = row.charAt(x);
+                if (ch >= 'A' && ch <= 'Z') {
+                    tiles[x * height + y] = (byte)(ch - 'A' + 1);
+                }
+                else if (SPAWN_CHARS.indexOf(ch) != -1) {
+                    spawns.add(new int[] { x, y, ch });
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            HEADER_SIZE + tiles.length + spawns.size() * SPAWN_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(0);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(spawns.size());
+        out.write(tiles);
+        for (int i=0; i<spawns.size(); i++) {
+            int[] spawn = spawns.get(i);
+            out.writeInt(spawn[0]);
+            out.writeShort(spawn[1]);
+            out.writeShort(spawn[2]);
+        }
+        out.close();
+        return new MapFile(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+
+    /**
+     * Writes this map in the binary format.
+     * @param out  the stream to write to
+     * @throws IOException if the map can't be written
+     */
+    public void write(OutputStream out) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        byte[] chunk = new byte[4096];
+        while (source.hasRemaining()) {
+            int count = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, count);
+            out.write(chunk, 0, count);
+        }
+    }
+
+
+    /**
+     * Gets the width of the map, in tiles.
+     * @return int
+     */
+    public int getWidth() {
+        return width;
+    }
+
+
+    /**
+     * Gets the height of the map, in tiles.
+     * @return int
+     */
+    public int getHeight() {
+        return height;
+    }
+
+
+    /**
+     * Gets the id of a tile: 0 for no tile, 1 for tile A, 2 for
+     * tile B, and so on.
+     * @param x
+     * @param y
+     * @return int
+     */
+    public int getTileId(int x, int y) {
+        return buffer.get(HEADER_SIZE + x * height + y) & 0xff;
+    }
+
+
+    /**
+     * Gets the ids of a column of tiles.
+     * @param x  the column
+     * @param ids  the array that receives the ids, at least
+     * getHeight() long
+     */
+    public void getColumn(int x, byte[] ids) {
+        ByteBuffer column = buffer.duplicate();
+        column.position(HEADER_SIZE + x * height);
+        column.get(ids, 0, height);
+    }
+
+
+    /**
+     * Gets the number of spawn points.
+     * @return int
+     */
+    public int getSpawnCount() {
+        return spawnCount;
+    }
+
+
+    /**
+     * Gets the tile x of a spawn point. Spawn points are sorted
+     * by x.
+     * @param i  the index of the spawn point
+     * @return int
+     */
+    public int getSpawnX(int i) {
+        return buffer.getInt(spawnOffset + i * SPAWN_SIZE);
+    }
+
+
+    /**
+     * Gets the tile y of a spawn point.
+     * @param i  the index of the spawn point
+     * @return int
+     */
+    public int getSpawnY(int i) {
+        return buffer.getShort(spawnOffset + i * SPAWN_SIZE + 4);
+    }
+
+
+    /**
+     * Gets the map character of the Sprite a spawn point spawns,
+     * one of SPAWN_CHARS.
+     * @param i  the index of the spawn point
+     * @return char
+     */
+    public char getSpawnChar(int i) {
+        return (char)buffer.getShort(spawnOffset + i * SPAWN_SIZE + 6);
+    }
+}
@@ -1,13 +1,18 @@
 package com.brackeen.javagamebook.tilegame;
 
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import javax.swing.ImageIcon;
 
 import com.brackeen.javagamebook.graphics.*;
 import com.brackeen.javagamebook.tilegame.sprites.*;
+import com.brackeen.javagamebook.util.ThreadPool;
 import java.net.URL;
 
 
@@ -15,13 +20,50 @@ import java.net.URL;
  * The ResourceManager class loads and manages tile Images and
  * "host" Sprites used in the game. Game Sprites are cloned from
  * "host" Sprites.
+ * <p>Each map is compiled once into a LevelTemplate, and kept.
+ * Starting a map over resets it from its template, without
+ * reading the map or cloning Sprites.
+ * <p>While a level is played, the next map and its background
+ * are loaded by a low-priority background thread, so
+ * loadNextMap() can usually hand over a map that is ready. The
+ * same thread loads the chunks of the level being played ahead
+ * of the player (see TileMap).
  */
 public class ResourceManager {
 
+    // size of the atlas pages used for enemy frames
+    private static final int ATLAS_PAGE_SIZE = 1024;
+
+    // transforms of the left, right, dead left, and dead right
+    // creature animations
+    private static final int[] TRANSFORMS = {
+        ImageTransformCache.NONE,
+        ImageTransformCache.MIRROR,
+        ImageTransformCache.FLIP,
+        ImageTransformCache.FLIP_MIRROR
+    };
+
     private ArrayList tiles;
     private int currentMap;
     private static GraphicsConfiguration gc;
 
+    // compiled maps, by number; the last map handed out, and
+    // which player it has
+    private HashMap<Integer, LevelTemplate> templates =
+        new HashMap<Integer, LevelTemplate>();
+    private TileMap tileMap;
+    private boolean playerIsBoy;
+
+    // the current map's background, and the map it belongs to
+    private Image background;
+    private int backgroundMap;
+
+    // the next level, loading in the background, and the map it
+    // was loaded after
+    private ThreadPool loader;
+    private FutureTask<Level> nextLevel;
+    private int nextLevelAfter;
+
     // host sprites used for cloning
     private Sprite playerSprite;
     private Sprite playerNSprite;
@@ -32,7 +74,18 @@ public class ResourceManager {
     private Sprite connySprite;
     private Sprite tonnySprite;
     private Sprite flySprite;
-    private Font font;
+
+    // bullet prototypes, loaded once
+    private static Image[] bulletImages;
+    private static Animation bulletLeft;
+    private static Animation bulletRight;
+
+    // the game font, loaded once, and its derived sizes
+    private static Font font;
+    private static HashMap<Float, Font> fontSizes =
+        new HashMap<Float, Font>();
+    private static HashMap<Float, TextRenderer> textRenderers =
+        new HashMap<Float, TextRenderer>();
 
     /**
      * Creates a new ResourceManager with the specified
@@ -40,17 +93,101 @@ public class ResourceManager {
      */
     public ResourceManager(GraphicsConfiguration gc) {
         this.gc = gc;
+        ImageTransformCache.getDefault().setGraphicsConfiguration(gc);
         loadTileImages();
         loadCreatureSprites();
         loadPowerUpSprites();
+        loader = new ThreadPool(1) {
+            protected void threadStarted() {
+                // don't take time from the game
+                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+            }
+        };
+    }
+
+
+    /**
+     * Runs a task on the thread that loads levels in the
+     * background, at a low priority.
+     * @param task  the task to run
+     */
+    public void runInBackground(Runnable task) {
+        loader.runTask(task);
+    }
+
+
+    /**
+     * Stops loading in the background.
+     */
+    public void close() {
+        loader.close();
     }
     
     
-    public static Font getFont() throws FontFormatException, IOException{
-        URL urlFont = ResourceManager.class.getResource("/fonts/8bit.ttf");
-        Font font = Font.createFont(Font.TRUETYPE_FONT, urlFont.openStream());
+    /**
+     * Gets the game font. The font file is only read and parsed
+     * the first time this method is called.
+     * 
+     * @return Font
+     * @throws FontFormatException
+     * @throws IOException 
+     */
+    public static synchronized Font getFont()
+        throws FontFormatException, IOException
+    {
+        if (font == null) {
+            URL urlFont = ResourceManager.class.getResource("/fonts/8bit.ttf");
+            InputStream is = urlFont.openStream();
+            try {
+                font = Font.createFont(Font.TRUETYPE_FONT, is);
+            }
+            finally {
+                is.close();
+            }
+        }
         return font;
-        
+    }
+
+    /**
+     * Gets the game font with the specified size. Each size is
+     * only derived once.
+     * 
+     * @param size Font size
+     * @return Font
+     * @throws FontFormatException
+     * @throws IOException 
+     */
+    public static synchronized Font getFont(float size)
+        throws FontFormatException, IOException
+    {
+        Float key = Float.valueOf(size);
+        Font sizedFont = fontSizes.get(key);
+        if (sizedFont == null) {
+            sizedFont = getFont().deriveFont(size);
+            fontSizes.put(key, sizedFont);
+        }
+        return sizedFont;
+    }
+
+    /**
+     * Gets a shared TextRenderer that draws with the game font
+     * at the specified size.
+     * 
+     * @param size Font size
+     * @return TextRenderer
+     * @throws FontFormatException
+     * @throws IOException 
+     */
+    public static synchronized TextRenderer getTextRenderer(float size)
+        throws FontFormatException, IOException
+    {
+        Float key = Float.valueOf(size);
+        TextRenderer text = textRenderers.get(key);
+        if (text == null) {
+            text = new TextRenderer(getFont(size));
+            textRenderers.put(key, text);
+        }
+        return text;
     }
 
 
@@ -74,7 +211,8 @@ public class ResourceManager {
      */
 
     public static Image getMirrorImage(Image image) {
-        return getScaledImage(image, -1, 1);
+        return ImageTransformCache.getDefault().get(image,
+            ImageTransformCache.MIRROR);
     }
 
     /**
@@ -85,69 +223,127 @@ public class ResourceManager {
      */
 
     public Image getFlippedImage(Image image) {
-        return getScaledImage(image, 1, -1);
+        return ImageTransformCache.getDefault().get(image,
+            ImageTransformCache.FLIP);
     }
 
     /**
-     * Transform the Image
+     * Load Next Map. If the next map was loaded in the
+     * background, it is handed over (waiting for it to finish
+     * if needed), along with its background (see
+     * getBackground()). Loading of the map after it starts
+     * right away.
      * 
-     * @param image
-     * @param x
-     * @param y
-     * @return Image
+     * @return  TileMap
      */
+    
+    public TileMap loadNextMap() {
+        Level level = null;
+        if (nextLevel != null && nextLevelAfter == currentMap) {
+            try {
+                level = nextLevel.get();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException ex) {
+                ex.getCause().printStackTrace();
+            }
+        }
+        nextLevel = null;
+        if (level == null) {
+            level = loadLevelAfter(currentMap, false);
+        }
+        if (level == null) {
+            // no maps to load!
+            return null;
+        }
 
-    private static Image getScaledImage(Image image, float x, float y) {
+        currentMap = level.mapNumber;
+        tileMap = level.map;
+        if (level.background != null) {
+            background = level.background;
+            backgroundMap = currentMap;
+        }
+        addPlayer(level.map);
+        prefetchNextLevel();
+        return level.map;
+    }
 
-        // set up the transform
-        AffineTransform transform = new AffineTransform();
-        transform.scale(x, y);
-        transform.translate(
-            (x-1) * image.getWidth(null) / 2,
-            (y-1) * image.getHeight(null) / 2);
 
-        // create a transparent (not translucent) image
-        Image newImage = gc.createCompatibleImage(
-            image.getWidth(null),
-            image.getHeight(null),
-            Transparency.BITMASK);
+    /**
+     * Gets the background image of the current map. It is
+     * loaded the first time it is asked for, unless it was
+     * loaded in the background with the map.
+     * 
+     * @return  Image
+     */
+    public Image getBackground() {
+        if (background == null || backgroundMap != currentMap) {
+            background = loadBackground(currentMap);
+            backgroundMap = currentMap;
+        }
+        return background;
+    }
 
-        // draw the transformed image
-        Graphics2D g = (Graphics2D)newImage.getGraphics();
-        g.drawImage(image, transform, null);
-        g.dispose();
 
-        return newImage;
+    /**
+     * Starts loading the map after the current one, and its
+     * background, in the background. Nothing is done if it is
+     * already loading.
+     */
+    private void prefetchNextLevel() {
+        if (nextLevel != null && nextLevelAfter == currentMap) {
+            return;
+        }
+        if (nextLevel != null) {
+            nextLevel.cancel(false);
+        }
+        final int after = currentMap;
+        nextLevel = new FutureTask<Level>(new Callable<Level>() {
+            public Level call() {
+                return loadLevelAfter(after, true);
+            }
+        });
+        nextLevelAfter = after;
+        loader.runTask(nextLevel);
     }
 
+
     /**
-     * Load Next Map
-     * 
-     * @return  TileMap
+     * Loads the first map that exists after the specified map,
+     * starting over at map 1 after map 3. The player isn't
+     * added. Returns null if there are no maps.
      */
-    
-    public TileMap loadNextMap() {
-        TileMap map = null;
-        while (map == null) {
-            currentMap++;
+    private Level loadLevelAfter(int mapNumber,
+        boolean loadBackground)
+    {
+        while (true) {
+            mapNumber++;
+            if (mapNumber == 4) {
+                mapNumber = 1;
+            }
             try {
-                if(currentMap==4){
-                    currentMap=1;
+                Level level = new Level();
+                level.mapNumber = mapNumber;
+                level.map = getTemplate(mapNumber).createMap(loader);
+                if (loadBackground) {
+                    level.background = loadBackground(mapNumber);
                 }
-                map = loadMap(
-                    "/maps/map" + currentMap + ".txt");
+                return level;
             }
             catch (IOException ex) {
-                if (currentMap == 1) {
-                    // no maps to load!
+                if (mapNumber == 1) {
                     return null;
                 }
-                currentMap = 0;
-                map = null;
+                mapNumber = 0;
             }
         }
+    }
 
-        return map;
+
+    private static Image loadBackground(int mapNumber) {
+        return loadImage("background" + mapNumber + ".jpg");
     }
     
     public void setCurrentMap(int map){
@@ -159,15 +355,25 @@ public class ResourceManager {
     }
 
     /**
-     * Reload Map
+     * Reload Map. If the last map handed out is the current
+     * map, it is reset from its template: the map isn't read or
+     * parsed again, and its Sprites are reused.
      * 
      * @return  Tile Map
      */
 
     public TileMap reloadMap() {
         try {
-            return loadMap(
-                "/maps/map" + currentMap + ".txt");
+            LevelTemplate template = getTemplate(currentMap);
+            if (tileMap != null && tileMap.getTemplate() == template) {
+                template.reset(tileMap);
+            }
+            else {
+                tileMap = template.createMap(loader);
+            }
+            addPlayer(tileMap);
+            prefetchNextLevel();
+            return tileMap;
         }
         catch (IOException ex) {
             ex.printStackTrace();
@@ -176,124 +382,166 @@ public class ResourceManager {
     }
 
     /**
-     * Load Map
+     * Gets the template of a map, loading it the first time.
+     * This may be called by the background thread.
      * 
-     * @param filename
-     * @return TileMap
+     * @param mapNumber
+     * @return LevelTemplate
      * @throws IOException 
      */
 
-    private TileMap loadMap(String filename)
+    private synchronized LevelTemplate getTemplate(int mapNumber)
         throws IOException
     {
-        ArrayList lines = new ArrayList();
-        int width = 0;
-        int height = 0;
-        InputStream ipStrm = ResourceManager.class.getResourceAsStream(filename);
-        
-    InputStreamReader ipStrmRdr = new InputStreamReader(ipStrm);
-    BufferedReader reader = new BufferedReader(ipStrmRdr);
-        // read every line in the text file into the list
-        //BufferedReader reader = new BufferedReader(
-        //    new FileReader(urlMap.toString()));
-        while (true) {
-            String line = reader.readLine();
-            // no more lines to read
-            if (line == null) {
-                reader.close();
-                break;
-            }
-
-            // add every line except for comments
-            if (!line.startsWith("#")) {
-                lines.add(line);
-                width = Math.max(width, line.length());
-            }
+        Integer key = Integer.valueOf(mapNumber);
+        LevelTemplate template = templates.get(key);
+        if (template == null) {
+            template = createTemplate(openMap(mapNumber));
+            templates.put(key, template);
         }
+        return template;
+    }
 
-        // parse the lines to create a TileEngine
-        height = lines.size();
-        TileMap newMap = new TileMap(width, height);
-        for (int y=0; y<height; y++) {
-            String line = (String)lines.get(y);
-            for (int x=0; x<line.length(); x++) {
-                char ch = line.charAt(x);
-
-                // check if the char represents tile A, B, C etc.
-                int tile = ch - 'A';
-                if (tile >= 0 && tile < tiles.size()) {
-                    newMap.setTile(x, y, (Image)tiles.get(tile));
-                }
+    /**
+     * Open Map. Opens the binary map compiled by the build, if
+     * there is one that is up to date; otherwise the text map is
+     * compiled in memory.
+     * 
+     * @param mapNumber
+     * @return MapFile
+     * @throws IOException 
+     */
 
-                // check if the char represents a sprite
-                else if (ch == 'o') {
-                    addSprite(newMap, coinSprite, x, y);
-                }
-                else if (ch == '!') {
-                    addSprite(newMap, musicSprite, x, y);
-                }
-                else if (ch == '*') {
-                    addSprite(newMap, goalSprite, x, y);
-                }
-                else if (ch == '1') {
-                    addSprite(newMap, grubSprite, x, y);
-                }
-                else if (ch == '2') {
-                    addSprite(newMap, connySprite, x, y);
-                }
-                else if (ch == '3') {
-                    addSprite(newMap, tonnySprite, x, y);
-                }
-            }
+    private static MapFile openMap(int mapNumber) throws IOException {
+        String name = "/maps/map" + mapNumber;
+        URL textUrl = ResourceManager.class.getResource(
+            name + MapCompiler.TEXT_EXTENSION);
+        URL binaryUrl = ResourceManager.class.getResource(
+            name + MapCompiler.BINARY_EXTENSION);
+        if (binaryUrl != null && !isNewer(textUrl, binaryUrl)) {
+            return MapFile.open(binaryUrl);
         }
-
-        Sprite player;
-        
-        if(WashStart.bBoy){
-        // add the player to the map
-          player = (Sprite)playerSprite.clone();
-        }else{
-          player = (Sprite)playerNSprite.clone();  
+        if (textUrl == null) {
+            throw new FileNotFoundException(
+                name + MapCompiler.TEXT_EXTENSION);
         }
-        player.setX(TileMapRenderer.tilesToPixels(3));
-        player.setY(0);
-        newMap.setPlayer(player);
+        Reader reader = new InputStreamReader(textUrl.openStream(),
+            "UTF-8");
+        try {
+            return MapFile.compile(reader);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks if a text map was edited after it was compiled.
+     * Only maps in the file system are checked.
+     */
 
-        return newMap;
+    private static boolean isNewer(URL textUrl, URL binaryUrl) {
+        if (textUrl == null) {
+            return false;
+        }
+        File textFile = MapFile.toFile(textUrl);
+        File binaryFile = MapFile.toFile(binaryUrl);
+        return (textFile != null && binaryFile != null &&
+            textFile.lastModified() > binaryFile.lastModified());
     }
 
     /**
-     * Add Sprite
+     * Create Template. Builds a LevelTemplate from a map. Only
+     * the spawn points are read; the tiles are read from the map
+     * as the level streams them in.
      * 
-     * @param map
-     * @param hostSprite
-     * @param tileX
-     * @param tileY 
+     * @param mapFile
+     * @return LevelTemplate
      */
 
-    private void addSprite(TileMap map,
-        Sprite hostSprite, int tileX, int tileY)
-    {
-        if (hostSprite != null) {
-            // clone the sprite from the "host"
-            Sprite sprite = (Sprite)hostSprite.clone();
+    private LevelTemplate createTemplate(MapFile mapFile) {
+        // find the sprites, and where each one starts
+        int count = mapFile.getSpawnCount();
+        ArrayList<Sprite> hosts = new ArrayList<Sprite>(count);
+        float[] spawnX = new float[count];
+        float[] spawnY = new float[count];
+        for (int i=0; i<count; i++) {
+            Sprite host = getHostSprite(mapFile.getSpawnChar(i));
+            if (host == null) {
+                continue;
+            }
+            int tileX = mapFile.getSpawnX(i);
+            int tileY = mapFile.getSpawnY(i);
 
             // center the sprite
-            sprite.setX(
-                TileMapRenderer.tilesToPixels(tileX) +
+            spawnX[hosts.size()] = TileMapRenderer.tilesToPixels(tileX) +
                 (TileMapRenderer.tilesToPixels(1) -
-                sprite.getWidth()) / 2);
+                host.getWidth()) / 2;
 
             // bottom-justify the sprite
-            sprite.setY(
-                TileMapRenderer.tilesToPixels(tileY + 1) -
-                sprite.getHeight());
+            spawnY[hosts.size()] = TileMapRenderer.tilesToPixels(tileY + 1) -
+                host.getHeight();
+            hosts.add(host);
+        }
+
+        Image[] palette = (Image[])tiles.toArray(new Image[tiles.size()]);
+        return new LevelTemplate(mapFile, palette,
+            (Sprite[])hosts.toArray(new Sprite[hosts.size()]),
+            Arrays.copyOf(spawnX, hosts.size()),
+            Arrays.copyOf(spawnY, hosts.size()));
+    }
+
+    /**
+     * Get Host Sprite
+     * 
+     * @param ch  the map character of the sprite
+     * @return Sprite  the "host" sprite, or null if none
+     */
 
-            // add it to the map
-            map.addSprite(sprite);
+    private Sprite getHostSprite(char ch) {
+        switch (ch) {
+            case 'o':
+                return coinSprite;
+            case '!':
+                return musicSprite;
+            case '*':
+                return goalSprite;
+            case '1':
+                return grubSprite;
+            case '2':
+                return connySprite;
+            case '3':
+                return tonnySprite;
+            default:
+                return null;
         }
     }
 
+    /**
+     * Adds the player to a map, at its starting position. The
+     * map's player is reset and reused, unless the other player
+     * has been chosen since it was added.
+     * 
+     * @param map 
+     */
+
+    private void addPlayer(TileMap map) {
+        Sprite player = map.getPlayer();
+        
+        if (player != null && playerIsBoy == WashStart.bBoy) {
+            player.reset();
+        }
+        else if(WashStart.bBoy){
+        // add the player to the map
+          player = (Sprite)playerSprite.clone();
+        }else{
+          player = (Sprite)playerNSprite.clone();  
+        }
+        playerIsBoy = WashStart.bBoy;
+        player.setX(TileMapRenderer.tilesToPixels(3));
+        player.setY(0);
+        map.setPlayer(player);
+    }
 
     // -----------------------------------------------------------
     // code for loading sprites and images
@@ -325,10 +573,12 @@ public class ResourceManager {
 
     public void loadCreatureSprites() {
 
-        Image[][] images = new Image[4][];
+        Image[] images;
         
-        // load left-facing images
-        images[0] = new Image[] {
+        // load left-facing images. The right-facing and "dead"
+        // variants are created on demand by the
+        // ImageTransformCache, the first time they are drawn.
+        images = new Image[] {
             loadImage("player1.png"),
             loadImage("player2.png"),
             loadImage("player3.png"),
@@ -414,18 +664,6 @@ public class ResourceManager {
             loadImage("nstanding2.png"),//82
         };
 
-        images[1] = new Image[images[0].length];
-        images[2] = new Image[images[0].length];
-        images[3] = new Image[images[0].length];
-        for (int i=0; i<images[0].length; i++) {
-            // right-facing images
-            images[1][i] = getMirrorImage(images[0][i]);
-            // left-facing "dead" images
-            images[2][i] = getFlippedImage(images[0][i]);
-            // right-facing "dead" images
-            images[3][i] = getFlippedImage(images[1][i]);
-        }
-
         // create creature animations
         Animation[] playerAnim = new Animation[8];
         Animation[] playerAnimN = new Animation[8];
@@ -434,59 +672,58 @@ public class ResourceManager {
         Animation[] connyAnim = new Animation[8];
         Animation[] tonnyAnim = new Animation[8];
         for (int i=0; i<4; i++) {
-           playerAnim[i] = createPlayerAnim(
-                images[i][0], images[i][1], images[i][2], 
-                    images[i][3], images[i][4], images[i][5],
-                    images[i][6], images[i][7], images[i][8],
-                    images[i][9]);
-           playerAnimN[i] = createPlayerAnim(
-                images[i][65], images[i][66], images[i][67], 
-                    images[i][68], images[i][69], images[i][70],
-                    images[i][71], images[i][72], images[i][73],
-                    images[i][74]);
-            flyAnim[i] = createFlyAnim(
-                images[i][10], images[i][11], images[i][12]);
+            int transform = TRANSFORMS[i];
+           playerAnim[i] = createPlayerAnim(transform,
+                images[0], images[1], images[2], 
+                    images[3], images[4], images[5],
+                    images[6], images[7], images[8],
+                    images[9]);
+           playerAnimN[i] = createPlayerAnim(transform,
+                images[65], images[66], images[67], 
+                    images[68], images[69], images[70],
+                    images[71], images[72], images[73],
+                    images[74]);
+            flyAnim[i] = createFlyAnim(transform,
+                images[10], images[11], images[12]);
         }
-        playerAnim[4] = createPlayerStanding(images[0][22], images[0][23]);//standing left
-        playerAnim[5] = createPlayerStanding(images[1][22], images[1][23]);//standing right
-        playerAnim[6] = createPlayerJumping(images[0][16], images[0][17], //jumping left
-                images[0][18], images[0][19], images[0][20], images[0][21]);
-        playerAnim[7] = createPlayerJumping(images[1][16], images[1][17], //jumping right
-                images[1][18], images[1][19], images[1][20], images[1][21]);
+        int left = ImageTransformCache.NONE;
+        int right = ImageTransformCache.MIRROR;
+        playerAnim[4] = createPlayerStanding(left, images[22], images[23]);//standing left
+        playerAnim[5] = createPlayerStanding(right, images[22], images[23]);//standing right
+        playerAnim[6] = createPlayerJumping(left, images[16], images[17], //jumping left
+                images[18], images[19], images[20], images[21]);
+        playerAnim[7] = createPlayerJumping(right, images[16], images[17], //jumping right
+                images[18], images[19], images[20], images[21]);
         
-        playerAnimN[4] = createPlayerStanding(images[0][81], images[0][82]);//standing left
-        playerAnimN[5] = createPlayerStanding(images[1][81], images[1][82]);//standing right
-        playerAnimN[6] = createPlayerJumping(images[0][75], images[0][76], //jumping left
-                images[0][77], images[0][78], images[0][79], images[0][80]);
-        playerAnimN[7] = createPlayerJumping(images[1][75], images[1][76], //jumping right
-                images[1][77], images[1][78], images[1][79], images[1][80]);
+        playerAnimN[4] = createPlayerStanding(left, images[81], images[82]);//standing left
+        playerAnimN[5] = createPlayerStanding(right, images[81], images[82]);//standing right
+        playerAnimN[6] = createPlayerJumping(left, images[75], images[76], //jumping left
+                images[77], images[78], images[79], images[80]);
+        playerAnimN[7] = createPlayerJumping(right, images[75], images[76], //jumping right
+                images[77], images[78], images[79], images[80]);
         
-        flyAnim[4] = createPlayerStanding(images[0][10], images[0][10]);
-        flyAnim[5] = createPlayerStanding(images[1][10], images[1][10]);
-        grubAnim[0] = createEnemyAnim("sucio");
-        grubAnim[1] = createMirrorEnemyAnim("sucio");
-        grubAnim[2]= createEnemyAnim("salvado");
-        grubAnim[3]= createMirrorEnemyAnim("salvado");
-        grubAnim[4] = createEnemyAnim("menossucio");
-        grubAnim[5] = createMirrorEnemyAnim("menossucio");
-        grubAnim[6] = createEnemyAnim("mmenossucio");
-        grubAnim[7] = createMirrorEnemyAnim("mmenossucio");
-        connyAnim[0] = createEnemyAnim("conny/sucio");
-        connyAnim[1] = createMirrorEnemyAnim("conny/sucio");
-        connyAnim[2]= createEnemyAnim("conny/salvado");
-        connyAnim[3]= createMirrorEnemyAnim("conny/salvado");
-        connyAnim[4] = createEnemyAnim("conny/menossucio");
-        connyAnim[5] = createMirrorEnemyAnim("conny/menossucio");
-        connyAnim[6] = createEnemyAnim("conny/mmenossucio");
-        connyAnim[7] = createMirrorEnemyAnim("conny/mmenossucio");
-        tonnyAnim[0] = createEnemyAnim("tonny/sucio");
-        tonnyAnim[1] = createMirrorEnemyAnim("tonny/sucio");
-        tonnyAnim[2]= createEnemyAnim("tonny/salvado");
-        tonnyAnim[3]= createMirrorEnemyAnim("tonny/salvado");
-        tonnyAnim[4] = createEnemyAnim("tonny/menossucio");
-        tonnyAnim[5] = createMirrorEnemyAnim("tonny/menossucio");
-        tonnyAnim[6] = createEnemyAnim("tonny/mmenossucio");
-        tonnyAnim[7] = createMirrorEnemyAnim("tonny/mmenossucio");
+        flyAnim[4] = createPlayerStanding(left, images[10], images[10]);
+        flyAnim[5] = createPlayerStanding(right, images[10], images[10]);
+
+        // pack the frames of each enemy family into its own atlas
+        TextureAtlas grubAtlas = new TextureAtlas(gc,
+            ATLAS_PAGE_SIZE, ATLAS_PAGE_SIZE);
+        createEnemyAnims(grubAtlas, "sucio", grubAnim, 0);
+        createEnemyAnims(grubAtlas, "salvado", grubAnim, 2);
+        createEnemyAnims(grubAtlas, "menossucio", grubAnim, 4);
+        createEnemyAnims(grubAtlas, "mmenossucio", grubAnim, 6);
+        TextureAtlas connyAtlas = new TextureAtlas(gc,
+            ATLAS_PAGE_SIZE, ATLAS_PAGE_SIZE);
+        createEnemyAnims(connyAtlas, "conny/sucio", connyAnim, 0);
+        createEnemyAnims(connyAtlas, "conny/salvado", connyAnim, 2);
+        createEnemyAnims(connyAtlas, "conny/menossucio", connyAnim, 4);
+        createEnemyAnims(connyAtlas, "conny/mmenossucio", connyAnim, 6);
+        TextureAtlas tonnyAtlas = new TextureAtlas(gc,
+            ATLAS_PAGE_SIZE, ATLAS_PAGE_SIZE);
+        createEnemyAnims(tonnyAtlas, "tonny/sucio", tonnyAnim, 0);
+        createEnemyAnims(tonnyAtlas, "tonny/salvado", tonnyAnim, 2);
+        createEnemyAnims(tonnyAtlas, "tonny/menossucio", tonnyAnim, 4);
+        createEnemyAnims(tonnyAtlas, "tonny/mmenossucio", tonnyAnim, 6);
 
         // create creature sprites
         playerSprite = new Player(playerAnim[0], playerAnim[1],
@@ -512,22 +749,22 @@ public class ResourceManager {
      * @return  Animation
      */
 
-    private Animation createPlayerAnim(Image player1,
+    private Animation createPlayerAnim(int transform, Image player1,
         Image player2, Image player3, Image player4,
         Image player5, Image player6, Image player7,
         Image player8, Image player9, Image player10)
     {
         Animation anim = new Animation();
-        anim.addFrame(player1, 80);
-        anim.addFrame(player2, 80);
-        anim.addFrame(player3, 80);
-        anim.addFrame(player4, 80);
-        anim.addFrame(player5, 80);
-        anim.addFrame(player6, 80);
-        anim.addFrame(player7, 80);
-        anim.addFrame(player8, 80);
-        anim.addFrame(player9, 80);
-        anim.addFrame(player10, 80);
+        anim.addFrame(player1, transform, 80);
+        anim.addFrame(player2, transform, 80);
+        anim.addFrame(player3, transform, 80);
+        anim.addFrame(player4, transform, 80);
+        anim.addFrame(player5, transform, 80);
+        anim.addFrame(player6, transform, 80);
+        anim.addFrame(player7, transform, 80);
+        anim.addFrame(player8, transform, 80);
+        anim.addFrame(player9, transform, 80);
+        anim.addFrame(player10, transform, 80);
         
         return anim;
     }
@@ -541,17 +778,17 @@ public class ResourceManager {
      * @return  Animation
      */
 
-    private Animation createPlayerJumping(Image player1,
+    private Animation createPlayerJumping(int transform, Image player1,
         Image player2, Image player3, Image player4,
         Image player5, Image player6)
     {
         Animation anim = new Animation();
-        anim.addFrame(player1, 200);
-        anim.addFrame(player2, 200);
-        anim.addFrame(player3, 200);
-        anim.addFrame(player4, 200);
-        anim.addFrame(player5, 200);
-        anim.addFrame(player6, 200);
+        anim.addFrame(player1, transform, 200);
+        anim.addFrame(player2, transform, 200);
+        anim.addFrame(player3, transform, 200);
+        anim.addFrame(player4, transform, 200);
+        anim.addFrame(player5, transform, 200);
+        anim.addFrame(player6, transform, 200);
         
         return anim;
     }
@@ -565,11 +802,12 @@ public class ResourceManager {
      * @return  Animation
      */
 
-    private Animation createPlayerStanding(Image player1, Image player2)
+    private Animation createPlayerStanding(int transform, Image player1,
+        Image player2)
     {
         Animation anim = new Animation();
-        anim.addFrame(player1, 250);
-        anim.addFrame(player2, 250);
+        anim.addFrame(player1, transform, 250);
+        anim.addFrame(player2, transform, 250);
         
         return anim;
     }
@@ -583,14 +821,14 @@ public class ResourceManager {
      * @return  Animation
      */
 
-    private Animation createFlyAnim(Image img1, Image img2,
-        Image img3)
+    private Animation createFlyAnim(int transform, Image img1,
+        Image img2, Image img3)
     {
         Animation anim = new Animation();
-        anim.addFrame(img1, 50);
-        anim.addFrame(img2, 50);
-        anim.addFrame(img3, 50);
-        anim.addFrame(img2, 50);
+        anim.addFrame(img1, transform, 50);
+        anim.addFrame(img2, transform, 50);
+        anim.addFrame(img3, transform, 50);
+        anim.addFrame(img2, transform, 50);
         return anim;
     }
 
@@ -617,31 +855,28 @@ public class ResourceManager {
     }
     
     /**
+     * Creates the left-facing and the mirrored right-facing
+     * Animations of an enemy, packing the frames into an atlas.
      * 
-     * @param str
-     * @return anim
-     */
-    
-    private Animation createEnemyAnim(String str) {
-        Animation anim = new Animation();
-        for(int i=1;i<=26;i++){
-            anim.addFrame(loadImage(str+i+".png"), 80);
-        }
-        return anim;
-    }
-    
-    /**
-     * 
-     * @param str
-     * @return anim
+     * @param atlas  atlas to pack the frames into
+     * @param str  name of the frames, without the frame number
+     * @param anims  array that receives the Animations
+     * @param index  index of the left-facing Animation; the
+     *  right-facing Animation goes in index + 1
      */
     
-    private Animation createMirrorEnemyAnim(String str) {
-        Animation anim = new Animation();
+    private void createEnemyAnims(TextureAtlas atlas, String str,
+        Animation[] anims, int index)
+    {
+        Animation left = new Animation();
+        Animation right = new Animation();
         for(int i=1;i<=26;i++){
-            anim.addFrame(getMirrorImage(loadImage(str+i+".png")), 80);
+            Image image = loadImage(str+i+".png");
+            left.addFrame(atlas.add(image), 80);
+            right.addFrame(atlas.addMirror(image), 80);
         }
-        return anim;
+        anims[index] = left;
+        anims[index + 1] = right;
     }
     
 
@@ -673,25 +908,68 @@ public class ResourceManager {
         musicSprite = new PowerUp.Music(anim);
     }
     
-    public static Animation bulletAnimationLeft(){
-        Animation anim = new Animation();
-        
-        anim.addFrame(loadImage("bullet1.png"), 50);
-        anim.addFrame(loadImage("bullet2.png"), 50);
-        anim.addFrame(loadImage("bullet3.png"), 50);
-        
-        return anim;
+    /**
+     * Gets the prototype of the left-facing bullet Animation.
+     * The images are only loaded the first time; clone the
+     * prototype to animate it.
+     * 
+     * @return  Animation
+     */
+    public static synchronized Animation bulletAnimationLeft(){
+        if (bulletLeft == null) {
+            bulletLeft = createBulletAnim(ImageTransformCache.NONE);
+        }
+        return bulletLeft;
+    }
+    
+    /**
+     * Gets the prototype of the right-facing bullet Animation.
+     * The images are only loaded the first time; clone the
+     * prototype to animate it.
+     * 
+     * @return  Animation
+     */
+    public static synchronized Animation bulletAnimationRight(){
+        if (bulletRight == null) {
+            bulletRight = createBulletAnim(ImageTransformCache.MIRROR);
+        }
+        return bulletRight;
     }
-    public static Animation bulletAnimationRight(){
+    
+    /**
+     * Create Bullet Animation
+     * 
+     * @param transform
+     * @return  Animation
+     */
+    private static Animation createBulletAnim(int transform){
         Animation anim = new Animation();
         
-        anim.addFrame(getMirrorImage(loadImage("bullet1.png")), 50);
-        anim.addFrame(getMirrorImage(loadImage("bullet2.png")), 50);
-        anim.addFrame(getMirrorImage(loadImage("bullet3.png")), 50);
+        anim.addFrame(getBulletImage(0), transform, 50);
+        anim.addFrame(getBulletImage(1), transform, 50);
+        anim.addFrame(getBulletImage(2), transform, 50);
         
         return anim;
     }
     
+    /**
+     * Gets one of the bullet images, shared by both bullet
+     * Animations.
+     * 
+     * @param index
+     * @return  Image
+     */
+    private static Image getBulletImage(int index){
+        if (bulletImages == null) {
+            bulletImages = new Image[] {
+                loadImage("bullet1.png"),
+                loadImage("bullet2.png"),
+                loadImage("bullet3.png")
+            };
+        }
+        return bulletImages[index];
+    }
+    
     /**
      * Create Grub Animation
      * 
@@ -725,4 +1003,13 @@ public class ResourceManager {
         return anim;
     }
 
+    /**
+     * A loaded map, and its number and background.
+     */
+    private static class Level {
+        int mapNumber;
+        TileMap map;
+        Image background;
+    }
+
 }
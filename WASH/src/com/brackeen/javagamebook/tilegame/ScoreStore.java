@@ -0,0 +1,231 @@
+package com.brackeen.javagamebook.tilegame;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import com.brackeen.javagamebook.util.ThreadPool;
+
+/**
+ * The ScoreStore class keeps the table of high scores, and
+ * saves it to a file, one score per line.
+ * <p>All file I/O is done by a background thread, so loading
+ * and saving never stall the game. The top scores are kept in
+ * a min-heap of the table's size, so a new score only has to
+ * beat the lowest one. Each change publishes a new, sorted copy
+ * of the table, which getScores() returns without blocking.
+ * <p>The file is never truncated in place: the table is
+ * written to a temporary file, synced to the disk, and renamed
+ * over the old file, so a crash mid-write leaves the old table.
+ * Where a file can't be renamed over another, the old file is
+ * renamed to a backup (the file name plus ".bak") first, and
+ * the table is read from the backup if the file is missing.
+ */
+public class ScoreStore {
+
+    private static final int[] NO_SCORES = new int[0];
+
+    private File file;
+    private int maxScores;
+    private ThreadPool ioThread;
+    private PriorityQueue<Integer> heap;
+    private volatile int[] scores;
+
+    /**
+     * Creates a new ScoreStore that keeps the top scores in the
+     * specified file.
+     * @param file  the file of scores
+     * @param maxScores  the number of scores in the table
+     */
+    public ScoreStore(File file, int maxScores) {
+        this.file = file.getAbsoluteFile();
+        this.maxScores = maxScores;
+        ioThread = new ThreadPool(1);
+        heap = new PriorityQueue<Integer>(maxScores + 1);
+        scores = NO_SCORES;
+    }
+
+
+    /**
+     * Loads the table from the file in the background. A missing
+     * file is an empty table.
+     */
+    public void load() {
+        ioThread.runTask(new Runnable() {
+            public void run() {
+                try {
+                    read();
+                }
+                catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+                publish();
+            }
+        });
+    }
+
+
+    /**
+     * Adds a score to the table in the background, and saves
+     * the table if the score made it in.
+     * @param score  the score
+     */
+    public void submit(final int score) {
+        ioThread.runTask(new Runnable() {
+            public void run() {
+                if (add(score)) {
+                    publish();
+                    try {
+                        write();
+                    }
+                    catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Gets the table of scores, highest first. The array is
+     * shared, and must not be modified.
+     * @return the scores
+     */
+    public int[] getScores() {
+        return scores;
+    }
+
+
+    /**
+     * Waits for any pending loads and saves to finish, and stops
+     * the background thread.
+     */
+    public void close() {
+        ioThread.join();
+    }
+
+
+    /**
+     * Adds a score to the heap if it is one of the top scores.
+     * Returns true if it was added.
+     */
+    private boolean add(int score) {
+        if (heap.size() < maxScores) {
+            heap.offer(score);
+            return true;
+        }
+        if (score > heap.peek()) {
+            heap.poll();
+            heap.offer(score);
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Publishes a sorted copy of the heap, highest first.
+     */
+    private void publish() {
+        int[] sorted = new int[heap.size()];
+        int i = 0;
+        for (Integer score : heap) {
+            sorted[i++] = score;
+        }
+        Arrays.sort(sorted);
+        for (i=0; i<sorted.length/2; i++) {
+            int swap = sorted[i];
+            sorted[i] = sorted[sorted.length - 1 - i];
+            sorted[sorted.length - 1 - i] = swap;
+        }
+        scores = sorted;
+    }
+
+
+    /**
+     * Reads the scores in the file into the heap. Lines that
+     * aren't numbers are skipped.
+     */
+    private void read() throws IOException {
+        File source = file;
+        if (!source.exists()) {
+            // a crash between the renames in write()
+            source = getBackupFile();
+        }
+        BufferedReader in;
+        try {
+            in = new BufferedReader(new FileReader(source));
+        }
+        catch (FileNotFoundException ex) {
+            return;
+        }
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    add(Integer.parseInt(line.trim()));
+                }
+                catch (NumberFormatException ex) {
+                    // skip it
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Writes the table to a temporary file, and renames it over
+     * the file.
+     */
+    private void write() throws IOException {
+        int[] table = scores;
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(out, "UTF-8"));
+            for (int i=0; i<table.length; i++) {
+                writer.println(table[i]);
+            }
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("Couldn't write " + temp);
+            }
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+
+        // renameTo() replaces the file on POSIX systems; on
+        // others, the old file is moved out of the way first, and
+        // kept as a backup until the new one is in place
+        if (!temp.renameTo(file)) {
+            File backup = getBackupFile();
+            backup.delete();
+            if (file.exists() && !file.renameTo(backup)) {
+                throw new IOException("Couldn't rename " + file +
+                    " to " + backup);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + temp +
+                    " to " + file);
+            }
+        }
+    }
+
+
+    private File getBackupFile() {
+        return new File(file.getPath() + ".bak");
+    }
+}
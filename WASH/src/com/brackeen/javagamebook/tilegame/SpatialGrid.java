@@ -0,0 +1,292 @@
+package com.brackeen.javagamebook.tilegame;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import com.brackeen.javagamebook.graphics.Sprite;
+
+/**
+ * The SpatialGrid class is a broad-phase index of the Sprites
+ * in a TileMap. The map is divided into cells the size of a
+ * tile, and each Sprite is listed in every cell its bounds
+ * overlap. Queries only look at the Sprites in the cells that
+ * overlap the queried area, instead of every Sprite in the map.
+ *
+ * <p>The grid listens to its Sprites, so it is kept up to date
+ * as they move or change size. Sprites are indexed with a small
+ * margin around their bounds, so small changes in size don't
+ * move them between cells.
+ * <p>Queries return Sprites in the order they were added to the
+ * grid, which is the order of the map's list of Sprites, not
+ * the order of the cells. Each cell keeps its Sprites in that
+ * order, so a query only has to merge the cells it looks at.
+ *
+ * <p>A grid can keep fewer columns of cells than the map has.
+ * The columns then wrap around, so a column of cells is shared
+ * by map columns that far apart. Sprites that far apart are
+ * never both in the grid when it indexes the resident window of
+ * a streamed TileMap, and any that are still just come back as
+ * extra candidates.
+ */
+public class SpatialGrid implements Sprite.Listener {
+
+    // extra pixels around each Sprite's bounds
+    private static final int MARGIN = 16;
+
+    private int width;
+    private int height;
+    private int columns;
+    private ArrayList<Entry>[] cells;
+    private IdentityHashMap<Sprite, Entry> entries;
+    private int queryMark;
+    private long nextOrder;
+
+    // reused by spriteMoved() and query()
+    private Entry oldCells = new Entry();
+    private ArrayList<Entry> found = new ArrayList<Entry>();
+
+    /**
+     * Creates a new, empty SpatialGrid covering a map of the
+     * specified size (in tiles). Sprites outside the map are
+     * kept in the cells along its edges.
+     * @param width
+     * @param height
+     */
+    public SpatialGrid(int width, int height) {
+        this(width, height, width);
+    }
+
+
+    /**
+     * Creates a new, empty SpatialGrid covering a map of the
+     * specified size (in tiles), keeping only the specified
+     * number of columns of cells.
+     * @param width
+     * @param height
+     * @param columns  the number of columns of cells
+     */
+    @SuppressWarnings("unchecked")
+    public SpatialGrid(int width, int height, int columns) {
+        this.width = Math.max(1, width);
+        this.height = Math.max(1, height);
+        this.columns = Math.max(1, Math.min(this.width, columns));
+        cells = new ArrayList[this.columns * this.height];
+        entries = new IdentityHashMap<Sprite, Entry>();
+    }
+
+
+    /**
+     * Adds a Sprite to this grid. The grid becomes the Sprite's
+     * Listener.
+     * @param sprite
+     */
+    public void add(Sprite sprite) {
+        if (entries.containsKey(sprite)) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.sprite = sprite;
+        entry.order = nextOrder++;
+        entries.put(sprite, entry);
+        setBounds(sprite, entry);
+        insert(entry);
+        sprite.setListener(this);
+    }
+
+
+    /**
+     * Removes a Sprite from this grid.
+     * @param sprite
+     */
+    public void remove(Sprite sprite) {
+        Entry entry = entries.remove(sprite);
+        if (entry != null) {
+            erase(entry, entry);
+            if (sprite.getListener() == this) {
+                sprite.setListener(null);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the number of Sprites in this grid.
+     * @return int
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Moves a Sprite to the cells of its new position, if
+     * they changed.
+     * @param sprite
+     */
+    public void spriteMoved(Sprite sprite) {
+        Entry entry = entries.get(sprite);
+        if (entry == null) {
+            return;
+        }
+        int oldLeft = entry.left;
+        int oldTop = entry.top;
+        int oldRight = entry.right;
+        int oldBottom = entry.bottom;
+        setBounds(sprite, entry);
+        if (entry.left != oldLeft || entry.top != oldTop ||
+            entry.right != oldRight || entry.bottom != oldBottom)
+        {
+            oldCells.left = oldLeft;
+            oldCells.top = oldTop;
+            oldCells.right = oldRight;
+            oldCells.bottom = oldBottom;
+            erase(entry, oldCells);
+            insert(entry);
+        }
+    }
+
+
+    /**
+     * Adds every Sprite listed in the cells overlapping the
+     * specified area (in pixels) to the result list, in the
+     * order they were added to this grid. Each Sprite is added
+     * once. The Sprites are only candidates; their bounds may
+     * not actually overlap the area.
+     * @param x  left of the area
+     * @param y  top of the area
+     * @param w  width of the area
+     * @param h  height of the area
+     * @param result  the list the Sprites are added to
+     */
+    public void query(int x, int y, int w, int h,
+        List<Sprite> result)
+    {
+        queryMark++;
+        int left = clampX(TileMapRenderer.pixelsToTiles(x));
+        int top = clampY(TileMapRenderer.pixelsToTiles(y));
+        int right = clampX(TileMapRenderer.pixelsToTiles(x + w - 1));
+        int bottom = clampY(TileMapRenderer.pixelsToTiles(y + h - 1));
+        for (int cy=top; cy<=bottom; cy++) {
+            for (int cx=left; cx<=right; cx++) {
+                ArrayList<Entry> cell = cells[getCell(cx, cy)];
+                if (cell == null) {
+                    continue;
+                }
+                for (int i=0; i<cell.size(); i++) {
+                    Entry entry = cell.get(i);
+                    if (entry.mark != queryMark) {
+                        entry.mark = queryMark;
+                        merge(entry);
+                    }
+                }
+            }
+        }
+        for (int i=0; i<found.size(); i++) {
+            result.add(found.get(i).sprite);
+        }
+        found.clear();
+    }
+
+
+    /**
+     * Inserts an entry into the found list, by order. The cells
+     * are in order, so it usually goes at the end.
+     */
+    private void merge(Entry entry) {
+        int i = found.size();
+        found.add(entry);
+        while (i > 0 && found.get(i - 1).order > entry.order) {
+            found.set(i, found.get(i - 1));
+            i--;
+        }
+        found.set(i, entry);
+    }
+
+
+    /**
+     * Computes the cells a Sprite covers.
+     */
+    private void setBounds(Sprite sprite, Entry entry) {
+        int x = Math.round(sprite.getX());
+        int y = Math.round(sprite.getY());
+        entry.left = clampX(TileMapRenderer.pixelsToTiles(x - MARGIN));
+        entry.top = clampY(TileMapRenderer.pixelsToTiles(y - MARGIN));
+        entry.right = clampX(TileMapRenderer.pixelsToTiles(
+            x + sprite.getWidth() + MARGIN));
+        entry.bottom = clampY(TileMapRenderer.pixelsToTiles(
+            y + sprite.getHeight() + MARGIN));
+    }
+
+
+    /**
+     * Lists an entry in the cells it covers, keeping each cell in
+     * order.
+     */
+    private void insert(Entry entry) {
+        for (int cy=entry.top; cy<=entry.bottom; cy++) {
+            for (int cx=entry.left; cx<=entry.right; cx++) {
+                int index = getCell(cx, cy);
+                ArrayList<Entry> cell = cells[index];
+                if (cell == null) {
+                    cell = new ArrayList<Entry>(4);
+                    cells[index] = cell;
+                }
+                int i = cell.size();
+                while (i > 0 && cell.get(i - 1).order > entry.order) {
+                    i--;
+                }
+                cell.add(i, entry);
+            }
+        }
+    }
+
+
+    /**
+     * Unlists an entry from the specified cells, keeping the
+     * order of the others.
+     */
+    private void erase(Entry entry, Entry cellsOf) {
+        for (int cy=cellsOf.top; cy<=cellsOf.bottom; cy++) {
+            for (int cx=cellsOf.left; cx<=cellsOf.right; cx++) {
+                ArrayList<Entry> cell = cells[getCell(cx, cy)];
+                if (cell != null) {
+                    int i = cell.indexOf(entry);
+                    if (i >= 0) {
+                        cell.remove(i);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private int getCell(int cx, int cy) {
+        return cy * columns + cx % columns;
+    }
+
+
+    private int clampX(int cx) {
+        return Math.max(0, Math.min(width - 1, cx));
+    }
+
+
+    private int clampY(int cy) {
+        return Math.max(0, Math.min(height - 1, cy));
+    }
+
+
+    /**
+     * A Sprite, the cells it covers, the mark of the last query
+     * that returned it, and when it was added.
+     */
+    private static class Entry {
+        Sprite sprite;
+        long order;
+        int left;
+        int top;
+        int right;
+        int bottom;
+        int mark;
+    }
+}
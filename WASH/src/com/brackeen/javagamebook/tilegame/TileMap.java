@@ -1,23 +1,88 @@
 package com.brackeen.javagamebook.tilegame;
 
 import java.awt.Image;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import com.brackeen.javagamebook.graphics.Sprite;
+import com.brackeen.javagamebook.util.ThreadPool;
 
 /**
  * The TileMap class contains the data for a tile-based
- * map, including Sprites. Each tile is a reference to an
- * Image. Of course, Images are used multiple times in the tile
- * map.
+ * map, including Sprites. Each tile is an id into a palette
+ * of Images. Id 0 means there is no tile. Which tiles are solid
+ * is kept in a separate set of bits, so collision checks don't
+ * need to look at the Images at all.
+ * <p>The tiles are kept in chunks of CHUNK_WIDTH columns, each
+ * stored row by row in a single array, with its own set of
+ * solid bits. A map
+ * created from a LevelTemplate is streamed: only the chunks
+ * around the window set with setWindow() are resident, so a
+ * level can be as wide as its map file without the memory
+ * growing with it. Chunks just outside the window are loaded
+ * ahead of time by a background thread, and chunks that fall
+ * out of it are dropped. Sprites are only active in the chunks
+ * of the window (plus one chunk either side); elsewhere they are
+ * dormant: they aren't returned by getSprites() or
+ * getSpritesNear(), so they aren't updated, drawn, or collided
+ * with. A level's Sprites are spawned the first time their
+ * chunk becomes active.
+ * <p>Maps created with a width and height keep every chunk, and
+ * every Sprite is always active.
 */
 public class TileMap {
 
-    private Image[][] tiles;
-    private LinkedList sprites;
+    /**
+     * The number of tile columns in a chunk.
+     */
+    public static final int CHUNK_WIDTH = 16;
+
+    // the size in bits of a chunk
+    // Math.pow(2, CHUNK_BITS) == CHUNK_WIDTH
+    private static final int CHUNK_BITS = 4;
+
+    // the most chunks a streamed map keeps at once: the active
+    // chunks, a chunk of tiles either side of them, and a chunk
+    // loading in the background either side of that
+    private static final int WINDOW_CHUNKS = 10;
+    private static final int MAX_ACTIVE_CHUNKS = WINDOW_CHUNKS - 4;
+
+    private int width;
+    private int height;
+    private int numChunks;
+    private Chunk[] chunks;
+    private Image[] palette;
+    private int paletteSize;
+    private int[] chunkVersions;
+    private int version;
+    private LinkedList<Sprite> sprites;
+    private SpatialGrid grid;
     private Sprite player;
 
+    // the template this map was created from, and the sprites
+    // it spawned, reused when the map is reset
+    private LevelTemplate template;
+    private Sprite[] spawned;
+
+    // streaming: the thread that loads chunks ahead of time and
+    // the chunks it is loading, the chunks with tiles, the
+    // chunks with active sprites, the chunks that have spawned
+    // their sprites, and the dormant sprites of each chunk
+    private ThreadPool loader;
+    private HashMap<Integer, FutureTask<Chunk>> loading;
+    private int firstResident;
+    private int lastResident;
+    private int firstActive;
+    private int lastActive;
+    private BitSet spawnedChunks;
+    private LinkedList<Sprite>[] dormant;
+
     /**
      * Creates a new TileMap with the specified width and
      * height (in number of tiles) of the map.
@@ -26,8 +91,69 @@ public class TileMap {
      */
     
     public TileMap(int width, int height) {
-        tiles = new Image[width][height];
-        sprites = new LinkedList();
+        this(width, height, new Image[0]);
+    }
+
+
+    /**
+     * Creates a new TileMap with the specified width and
+     * height (in number of tiles) of the map, and a palette of
+     * tile images. Tile id <code>n</code> is
+     * <code>palette[n-1]</code>.
+     * @param width
+     * @param height
+     * @param palette 
+     */
+    public TileMap(int width, int height, Image[] palette) {
+        init(width, height, palette);
+        for (int i=0; i<numChunks; i++) {
+            chunks[i] = new Chunk(height);
+        }
+        grid = new SpatialGrid(width, height);
+        firstResident = firstActive = 0;
+        lastResident = lastActive = numChunks - 1;
+    }
+
+
+    /**
+     * Creates a new streamed TileMap from a template. No chunk
+     * is resident until setWindow() is called. The template's
+     * Sprites are spawned into it as their chunks become active.
+     * @param template
+     * @param width
+     * @param height
+     * @param palette  the tile images
+     * @param spawnCount  the number of Sprites the template spawns
+     * @param loader  the thread that loads chunks ahead of time
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TileMap(LevelTemplate template, int width, int height,
+        Image[] palette, int spawnCount, ThreadPool loader)
+    {
+        init(width, height, palette);
+        grid = new SpatialGrid(width, height,
+            WINDOW_CHUNKS * CHUNK_WIDTH);
+        this.template = template;
+        this.loader = loader;
+        spawned = new Sprite[spawnCount];
+        loading = new HashMap<Integer, FutureTask<Chunk>>();
+        firstResident = firstActive = 0;
+        lastResident = lastActive = -1;
+        spawnedChunks = new BitSet(numChunks);
+        dormant = new LinkedList[numChunks];
+    }
+
+
+    private void init(int width, int height, Image[] palette) {
+        this.width = width;
+        this.height = height;
+        numChunks = (width + CHUNK_WIDTH - 1) >> CHUNK_BITS;
+        chunks = new Chunk[numChunks];
+        this.palette = new Image[palette.length + 1];
+        System.arraycopy(palette, 0, this.palette, 1, palette.length);
+        paletteSize = this.palette.length;
+        chunkVersions = new int[numChunks];
+        sprites = new LinkedList<Sprite>();
     }
 
 
@@ -37,7 +163,7 @@ public class TileMap {
      */
     
     public int getWidth() {
-        return tiles.length;
+        return width;
     }
 
 
@@ -47,14 +173,14 @@ public class TileMap {
      */
     
     public int getHeight() {
-        return tiles[0].length;
+        return height;
     }
 
 
     /**
      * Gets the tile at the specified location. Returns null if
-     * no tile is at the location or if the location is out of
-     * bounds.
+     * no tile is at the location, if the location is out of
+     * bounds, or if its chunk isn't resident.
      * @param x
      * @param y
      * @return Image
@@ -62,26 +188,308 @@ public class TileMap {
     
     
     public Image getTile(int x, int y) {
-        if (x < 0 || x >= getWidth() ||
-            y < 0 || y >= getHeight())
+        return palette[getTileId(x, y)];
+    }
+
+
+    /**
+     * Gets the id of the tile at the specified location.
+     * Returns 0 if no tile is at the location, if the location
+     * is out of bounds, or if its chunk isn't resident.
+     * @param x
+     * @param y
+     * @return int
+     */
+    public int getTileId(int x, int y) {
+        if (x < 0 || x >= width ||
+            y < 0 || y >= height)
         {
-            return null;
+            return 0;
         }
-        else {
-            return tiles[x][y];
+        Chunk chunk = chunks[x >> CHUNK_BITS];
+        if (chunk == null) {
+            return 0;
         }
+        return chunk.tiles[y * CHUNK_WIDTH + (x & (CHUNK_WIDTH - 1))];
     }
 
 
     /**
-     * Sets the tile at the specified location.
+     * Checks if the tile at the specified location is solid.
+     * Returns false if the location is out of bounds, or if its
+     * chunk isn't resident.
+     * @param x
+     * @param y
+     * @return boolean
+     */
+    public boolean isSolid(int x, int y) {
+        if (x < 0 || x >= width ||
+            y < 0 || y >= height)
+        {
+            return false;
+        }
+        Chunk chunk = chunks[x >> CHUNK_BITS];
+        if (chunk == null) {
+            return false;
+        }
+        return chunk.solid.get(y * CHUNK_WIDTH + (x & (CHUNK_WIDTH - 1)));
+    }
+
+
+    /**
+     * Sets the tile at the specified location. If the Image is
+     * not in the palette yet, it is added to it.
      * @param x
      * @param y
      * @param tile 
      */
     
     public void setTile(int x, int y, Image tile) {
-        tiles[x][y] = tile;
+        setTileId(x, y, getPaletteId(tile));
+    }
+
+
+    /**
+     * Sets the id of the tile at the specified location. The
+     * change is lost when a streamed map drops the chunk.
+     * @param x
+     * @param y
+     * @param id  the palette id, or 0 for no tile
+     * @throws IllegalStateException if the chunk isn't resident
+     */
+    public void setTileId(int x, int y, int id) {
+        if (id < 0 || id >= paletteSize) {
+            throw new IllegalArgumentException("Bad tile id: " + id);
+        }
+        Chunk chunk = chunks[x >> CHUNK_BITS];
+        if (chunk == null) {
+            throw new IllegalStateException(
+                "Column " + x + " isn't resident");
+        }
+        chunk.setTileId(y * CHUNK_WIDTH + (x & (CHUNK_WIDTH - 1)), id);
+        chunkVersions[x >> CHUNK_BITS] = ++version;
+    }
+
+
+    /**
+     * Gets the palette id of a tile Image, adding it to the
+     * palette if needed.
+     */
+    private int getPaletteId(Image tile) {
+        if (tile == null) {
+            return 0;
+        }
+        for (int i=1; i<paletteSize; i++) {
+            if (palette[i] == tile) {
+                return i;
+            }
+        }
+        if (paletteSize == Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many tile images");
+        }
+        if (paletteSize == palette.length) {
+            Image[] newPalette = new Image[paletteSize * 2];
+            System.arraycopy(palette, 0, newPalette, 0, paletteSize);
+            palette = newPalette;
+        }
+        palette[paletteSize] = tile;
+        return paletteSize++;
+    }
+
+
+    /**
+     * Gets the version of a column of tiles. The version
+     * changes every time a tile in the column is set, or its
+     * chunk is loaded, so anything cached from the column can
+     * be checked for staleness.
+     * @param x
+     * @return int
+     */
+    public int getColumnVersion(int x) {
+        return chunkVersions[x >> CHUNK_BITS];
+    }
+
+
+    /**
+     * Sets the window of the map that is being played: usually
+     * the columns on screen. The chunks around it are made
+     * resident, and their Sprites active; chunks further away are
+     * dropped, and their Sprites made dormant. Does nothing if
+     * this map isn't streamed.
+     * <p>The tiles of the active chunks and of one chunk either
+     * side are loaded here if the background thread hasn't
+     * loaded them yet. The background thread is asked to load
+     * the chunk after that.
+     * @param firstX  the first column of the window
+     * @param lastX  the last column of the window
+     */
+    public void setWindow(int firstX, int lastX) {
+        if (template == null) {
+            return;
+        }
+        int first = clampChunk((firstX >> CHUNK_BITS) - 1);
+        int last = clampChunk((lastX >> CHUNK_BITS) + 1);
+        last = Math.min(last, first + MAX_ACTIVE_CHUNKS - 1);
+
+        // drop the chunks that are too far away
+        int newFirstResident = clampChunk(first - 2);
+        int newLastResident = clampChunk(last + 2);
+        for (int i=firstResident; i<=lastResident; i++) {
+            if (i < newFirstResident || i > newLastResident) {
+                chunks[i] = null;
+                FutureTask<Chunk> task =
+                    loading.remove(Integer.valueOf(i));
+                if (task != null) {
+                    task.cancel(false);
+                }
+            }
+        }
+        firstResident = newFirstResident;
+        lastResident = newLastResident;
+
+        // load the tiles that are needed now, and those that
+        // will be needed soon
+        for (int i=firstResident; i<=lastResident; i++) {
+            if (chunks[i] != null) {
+                continue;
+            }
+            FutureTask<Chunk> task = loading.get(Integer.valueOf(i));
+            if ((i >= first - 1 && i <= last + 1) ||
+                (task != null && task.isDone()))
+            {
+                setChunk(i, takeChunk(i));
+            }
+            else if (task == null) {
+                loadInBackground(i);
+            }
+        }
+
+        // put the sprites that left the active chunks to sleep
+        Iterator<Sprite> i = sprites.iterator();
+        while (i.hasNext()) {
+            Sprite sprite = i.next();
+            int chunk = getChunk(sprite);
+            if (chunk < first || chunk > last) {
+                i.remove();
+                grid.remove(sprite);
+                if (dormant[chunk] == null) {
+                    dormant[chunk] = new LinkedList<Sprite>();
+                }
+                dormant[chunk].add(sprite);
+            }
+        }
+
+        // wake up the sprites of the chunks that became active
+        int oldFirst = firstActive;
+        int oldLast = lastActive;
+        firstActive = first;
+        lastActive = last;
+        for (int c=first; c<=last; c++) {
+            if (c < oldFirst || c > oldLast) {
+                wakeUp(c);
+            }
+        }
+    }
+
+
+    private int clampChunk(int chunk) {
+        return Math.max(0, Math.min(numChunks - 1, chunk));
+    }
+
+
+    /**
+     * Gets the chunk a Sprite is in, by its center.
+     */
+    private int getChunk(Sprite sprite) {
+        int x = TileMapRenderer.pixelsToTiles(
+            sprite.getX() + sprite.getWidth() / 2);
+        return clampChunk(x >> CHUNK_BITS);
+    }
+
+
+    private boolean isActive(int chunk) {
+        return (chunk >= firstActive && chunk <= lastActive);
+    }
+
+
+    private void setChunk(int chunk, Chunk tiles) {
+        chunks[chunk] = tiles;
+        chunkVersions[chunk] = ++version;
+    }
+
+
+    /**
+     * Starts loading the tiles of a chunk in the background.
+     */
+    private void loadInBackground(final int chunk) {
+        FutureTask<Chunk> task = new FutureTask<Chunk>(
+            new Callable<Chunk>() {
+                public Chunk call() {
+                    return loadChunk(chunk);
+                }
+            });
+        loading.put(Integer.valueOf(chunk), task);
+        loader.runTask(task);
+    }
+
+
+    /**
+     * Gets the tiles of a chunk from the background thread. If
+     * it hasn't started loading them, they are loaded here
+     * instead of waiting behind its other work.
+     */
+    private Chunk takeChunk(int chunk) {
+        FutureTask<Chunk> task = loading.remove(Integer.valueOf(chunk));
+        if (task != null && !task.cancel(false)) {
+            try {
+                return task.get();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException ex) {
+                ex.getCause().printStackTrace();
+            }
+        }
+        return loadChunk(chunk);
+    }
+
+
+    /**
+     * Loads the tiles of a chunk from the template, and marks
+     * which are solid. This may be called by the background
+     * thread.
+     */
+    private Chunk loadChunk(int chunk) {
+        Chunk tiles = new Chunk(height);
+        int firstX = chunk << CHUNK_BITS;
+        template.loadTiles(firstX, Math.min(CHUNK_WIDTH, width - firstX),
+            tiles.tiles, CHUNK_WIDTH);
+        tiles.findSolid();
+        return tiles;
+    }
+
+
+    /**
+     * Makes the Sprites of a chunk active, spawning them the
+     * first time.
+     */
+    private void wakeUp(int chunk) {
+        if (!spawnedChunks.get(chunk)) {
+            spawnedChunks.set(chunk);
+            int firstX = chunk << CHUNK_BITS;
+            template.spawn(this, firstX, firstX + CHUNK_WIDTH - 1);
+        }
+        LinkedList<Sprite> sleeping = dormant[chunk];
+        if (sleeping != null) {
+            dormant[chunk] = null;
+            Iterator<Sprite> i = sleeping.iterator();
+            while (i.hasNext()) {
+                Sprite sprite = i.next();
+                sprites.add(sprite);
+                grid.add(sprite);
+            }
+        }
     }
 
 
@@ -105,11 +513,22 @@ public class TileMap {
 
 
     /**
-     * Adds a Sprite object to this map.
+     * Adds a Sprite object to this map. It is dormant if it is
+     * outside the active chunks.
      * @param sprite 
      */
     public void addSprite(Sprite sprite) {
-        sprites.add(sprite);
+        int chunk = getChunk(sprite);
+        if (dormant == null || isActive(chunk)) {
+            sprites.add(sprite);
+            grid.add(sprite);
+        }
+        else {
+            if (dormant[chunk] == null) {
+                dormant[chunk] = new LinkedList<Sprite>();
+            }
+            dormant[chunk].add(sprite);
+        }
     }
 
 
@@ -118,17 +537,135 @@ public class TileMap {
      * @param sprite 
      */
     public void removeSprite(Sprite sprite) {
-        sprites.remove(sprite);
+        if (sprites.remove(sprite)) {
+            grid.remove(sprite);
+        }
+        else if (dormant != null) {
+            // a dormant sprite that was moved since it went to
+            // sleep isn't in the chunk it is in now
+            for (int i=0; i<numChunks; i++) {
+                if (dormant[i] != null && dormant[i].remove(sprite)) {
+                    return;
+                }
+            }
+        }
     }
 
 
     /**
-     * Gets an Iterator of all the Sprites in this map,
+     * Removes every Sprite from this map, active or dormant,
+     * except the player Sprite.
+     */
+    public void removeAllSprites() {
+        Iterator<Sprite> i = sprites.iterator();
+        while (i.hasNext()) {
+            grid.remove(i.next());
+        }
+        sprites.clear();
+        if (dormant != null) {
+            for (int c=0; c<numChunks; c++) {
+                dormant[c] = null;
+            }
+        }
+    }
+
+
+    /**
+     * Gets the LevelTemplate this map was created from.
+     * @return the template, or null if none
+     */
+    public LevelTemplate getTemplate() {
+        return template;
+    }
+
+
+    /**
+     * Gets the Sprites spawned by this map's LevelTemplate, one
+     * per spawn point. A Sprite is null until its chunk has been
+     * active.
+     */
+    Sprite[] getSpawnedSprites() {
+        return spawned;
+    }
+
+
+    /**
+     * Gets an Iterator of all the active Sprites in this map,
      * excluding the player Sprite.
      * @return 
      */
-    public Iterator getSprites() {
-        return sprites.iterator();
+    public Iterator<Sprite> getSprites() {
+        final Iterator<Sprite> i = sprites.iterator();
+        return new Iterator<Sprite>() {
+            private Sprite current;
+
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+
+            public Sprite next() {
+                current = i.next();
+                return current;
+            }
+
+            public void remove() {
+                i.remove();
+                grid.remove(current);
+            }
+        };
+    }
+
+
+    /**
+     * Adds the active Sprites in this map (excluding the player
+     * Sprite) that may overlap the specified area, in pixels, to
+     * a list. Only the Sprites near the area are looked at, but
+     * the Sprites added still need an exact bounds check.
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @param result  the list the Sprites are added to
+     */
+    public void getSpritesNear(int x, int y, int width, int height,
+        List<Sprite> result)
+    {
+        grid.query(x, y, width, height, result);
+    }
+
+
+    /**
+     * The tiles of a chunk, row by row, and which of them are
+     * solid.
+     */
+    private static class Chunk {
+
+        private short[] tiles;
+        private BitSet solid;
+
+        public Chunk(int height) {
+            tiles = new short[CHUNK_WIDTH * height];
+            solid = new BitSet(tiles.length);
+        }
+
+
+        public void setTileId(int index, int id) {
+            tiles[index] = (short)id;
+            // every tile in the palette is solid
+            solid.set(index, id != 0);
+        }
+
+
+        /**
+         * Marks the solid tiles, after the tiles are loaded.
+         */
+        public void findSolid() {
+            for (int i=0; i<tiles.length; i++) {
+                if (tiles[i] != 0) {
+                    solid.set(i);
+                }
+            }
+        }
     }
 
 }
@@ -1,10 +1,10 @@
 package com.brackeen.javagamebook.tilegame;
 
 import java.awt.*;
+import java.awt.image.VolatileImage;
 import java.util.Iterator;
 
 import com.brackeen.javagamebook.graphics.Sprite;
-import com.brackeen.javagamebook.tilegame.sprites.Bullet;
 import com.brackeen.javagamebook.tilegame.sprites.Creature;
 
 /**
@@ -19,6 +19,12 @@ import com.brackeen.javagamebook.tilegame.sprites.Creature;
  * <p>Also, three static methods are provided to convert pixels
  * to tile positions, and vice-versa.
  *
+ * <p>The tiles are pre-rendered into chunks of CHUNK_TILES
+ * columns (the full height of the map), so each frame only
+ * draws the two or three chunks that overlap the screen.
+ * Chunks are rebuilt when a tile in them changes or when the
+ * accelerated image loses its contents.
+ *
  * <p>This TileMapRender uses a tile size of 64.
  */
 public class TileMapRenderer {
@@ -27,11 +33,21 @@ public class TileMapRenderer {
     // the size in bits of the tile
     // Math.pow(2, TILE_SIZE_BITS) == TILE_SIZE
     private static final int TILE_SIZE_BITS = 6;
+
+    // number of tile columns pre-rendered in each chunk
+    private static final int CHUNK_TILES = 8;
     
     public static int offsetX;
 
     private Image background;
 
+    // pre-rendered tile chunks of chunkMap
+    private TileMap chunkMap;
+    private VolatileImage[] chunks;
+    private int[] chunkVersions;
+    private int firstResidentChunk;
+    private int lastResidentChunk;
+
     /**
      * Converts a pixel position to a tile position.
      * @param pixels
@@ -85,6 +101,27 @@ public class TileMapRenderer {
     }
 
 
+    /**
+     * Gets the scrolling position of a map, in pixels, with the
+     * player at the specified x position: the map is scrolled to
+     * keep the player in the middle of the screen, but never
+     * past its edges.
+     * @param map
+     * @param playerX
+     * @param screenWidth
+     * @return int
+     */
+    public static int getOffsetX(TileMap map, int playerX,
+        int screenWidth)
+    {
+        int mapWidth = tilesToPixels(map.getWidth());
+        int offset = screenWidth / 2 - playerX - TILE_SIZE;
+        offset = Math.min(offset, 0);
+        offset = Math.max(offset, screenWidth - mapWidth);
+        return offset;
+    }
+
+
     /**
      * Draws the specified TileMap.
      * @param g
@@ -94,16 +131,33 @@ public class TileMapRenderer {
      */
     public void draw(Graphics2D g, TileMap map,
         int screenWidth, int screenHeight)
+    {
+        draw(g, map, screenWidth, screenHeight, 1);
+    }
+
+
+    /**
+     * Draws the specified TileMap, with every Sprite drawn at
+     * its interpolated position between the last two simulation
+     * ticks.
+     * @param g
+     * @param map
+     * @param screenWidth
+     * @param screenHeight
+     * @param alpha  how far between the last two ticks to draw,
+     * from 0 to 1
+     */
+    public void draw(Graphics2D g, TileMap map,
+        int screenWidth, int screenHeight, float alpha)
     {
         Sprite player = map.getPlayer();
         int mapWidth = tilesToPixels(map.getWidth());
+        int playerX = Math.round(player.getInterpolatedX(alpha));
+        int playerY = Math.round(player.getInterpolatedY(alpha));
 
         // get the scrolling position of the map
         // based on player's position
-        offsetX = screenWidth / 2 -
-            Math.round(player.getX()) - TILE_SIZE;
-        offsetX = Math.min(offsetX, 0);
-        offsetX = Math.max(offsetX, screenWidth - mapWidth);
+        offsetX = getOffsetX(map, playerX, screenWidth);
 
         // get the y offset to draw all sprites and tiles
         int offsetY = screenHeight -
@@ -128,41 +182,22 @@ public class TileMapRenderer {
         }
 
         // draw the visible tiles
-        int firstTileX = pixelsToTiles(-offsetX);
-        int lastTileX = firstTileX +
-            pixelsToTiles(screenWidth) + 1;
-        for (int y=0; y<map.getHeight(); y++) {
-            for (int x=firstTileX; x <= lastTileX; x++) {
-                Image image = map.getTile(x, y);
-                if (image != null) {
-                    g.drawImage(image,
-                        tilesToPixels(x) + offsetX,
-                        tilesToPixels(y) + offsetY,
-                        null);
-                }
-            }
-        }
+        drawTiles(g, map, offsetY, screenWidth);
 
         // draw player
-        g.drawImage(player.getImage(),
-            Math.round(player.getX()) + offsetX,
-            Math.round(player.getY()) + offsetY,
-            null);
+        player.draw(g,
+            playerX + offsetX,
+            playerY + offsetY);
 
         // draw sprites
         Iterator i = map.getSprites();
         while (i.hasNext()) {
             Sprite sprite = (Sprite)i.next();
-            int x;
-            int y;
-            if(sprite instanceof Bullet){
-                x = Math.round(sprite.getX()) + offsetX;
-                y = Math.round(sprite.getY()) + offsetY;
-            }else{
-               x = Math.round(sprite.getX()) + offsetX;
-               y = Math.round(sprite.getY()) + offsetY; 
-            }
-            g.drawImage(sprite.getImage(), x, y, null);
+            int x = Math.round(sprite.getInterpolatedX(alpha)) +
+                offsetX;
+            int y = Math.round(sprite.getInterpolatedY(alpha)) +
+                offsetY;
+            sprite.draw(g, x, y);
 
             // wake up the creature when it's on screen
             if (sprite instanceof Creature &&
@@ -173,4 +208,182 @@ public class TileMapRenderer {
         }
     }
 
+
+
+    /**
+     * Draws the chunks of tiles that overlap the screen,
+     * pre-rendering any chunk that is missing, stale, or lost.
+     * @param g
+     * @param map
+     * @param offsetY
+     * @param screenWidth 
+     */
+    private void drawTiles(Graphics2D g, TileMap map, int offsetY,
+        int screenWidth)
+    {
+        if (map != chunkMap) {
+            flushChunks();
+            int numChunks = (map.getWidth() + CHUNK_TILES - 1) /
+                CHUNK_TILES;
+            chunks = new VolatileImage[numChunks];
+            chunkVersions = new int[numChunks];
+            chunkMap = map;
+            firstResidentChunk = 0;
+            lastResidentChunk = -1;
+        }
+
+        int firstChunk = Math.max(0,
+            pixelsToTiles(-offsetX) / CHUNK_TILES);
+        int lastChunk = Math.min(chunks.length - 1,
+            pixelsToTiles(-offsetX + screenWidth - 1) / CHUNK_TILES);
+
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        for (int i=firstChunk; i<=lastChunk; i++) {
+            int x = tilesToPixels(i * CHUNK_TILES) + offsetX;
+            VolatileImage chunk;
+            do {
+                chunk = validateChunk(gc, map, i);
+                g.drawImage(chunk, x, offsetY, null);
+            }
+            while (chunk.contentsLost());
+        }
+
+        // release chunks that scrolled well off screen
+        if (firstChunk != firstResidentChunk ||
+            lastChunk != lastResidentChunk)
+        {
+            for (int i=firstResidentChunk; i<=lastResidentChunk; i++) {
+                if (i < firstChunk - 1 || i > lastChunk + 1) {
+                    flushChunk(i);
+                }
+            }
+            firstResidentChunk = Math.max(0, firstChunk - 1);
+            lastResidentChunk = Math.min(chunks.length - 1,
+                lastChunk + 1);
+        }
+    }
+
+
+    /**
+     * Makes sure a chunk exists, is compatible with the
+     * GraphicsConfiguration, and is up to date with the map.
+     * @param gc
+     * @param map
+     * @param index
+     * @return the chunk image
+     */
+    private VolatileImage validateChunk(GraphicsConfiguration gc,
+        TileMap map, int index)
+    {
+        int version = getChunkVersion(map, index);
+        VolatileImage chunk = chunks[index];
+        boolean rebuild = (chunkVersions[index] != version);
+
+        int status = (chunk == null) ?
+            VolatileImage.IMAGE_INCOMPATIBLE : chunk.validate(gc);
+        if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if (chunk != null) {
+                chunk.flush();
+            }
+            chunk = gc.createCompatibleVolatileImage(
+                tilesToPixels(CHUNK_TILES),
+                tilesToPixels(map.getHeight()),
+                Transparency.BITMASK);
+            chunks[index] = chunk;
+            rebuild = true;
+        }
+        else if (status == VolatileImage.IMAGE_RESTORED) {
+            rebuild = true;
+        }
+
+        if (rebuild) {
+            renderChunk(chunk, map, index);
+            chunkVersions[index] = version;
+        }
+        return chunk;
+    }
+
+
+    /**
+     * Draws the tiles of a chunk into its image.
+     * @param chunk
+     * @param map
+     * @param index 
+     */
+    private void renderChunk(VolatileImage chunk, TileMap map,
+        int index)
+    {
+        Graphics2D g = chunk.createGraphics();
+
+        // clear to transparent
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(new Color(0, 0, 0, 0));
+        g.fillRect(0, 0, chunk.getWidth(), chunk.getHeight());
+        g.setComposite(AlphaComposite.SrcOver);
+
+        int firstTileX = index * CHUNK_TILES;
+        int lastTileX = Math.min(map.getWidth(),
+            firstTileX + CHUNK_TILES) - 1;
+        for (int y=0; y<map.getHeight(); y++) {
+            for (int x=firstTileX; x<=lastTileX; x++) {
+                Image image = map.getTile(x, y);
+                if (image != null) {
+                    g.drawImage(image,
+                        tilesToPixels(x - firstTileX),
+                        tilesToPixels(y),
+                        null);
+                }
+            }
+        }
+        g.dispose();
+    }
+
+
+    /**
+     * Gets the version of a chunk, which is the latest version
+     * of any of its columns. The chunk is never built with
+     * version 0 so a new chunk is always rendered.
+     * @param map
+     * @param index
+     * @return int
+     */
+    private int getChunkVersion(TileMap map, int index) {
+        int version = 1;
+        int firstTileX = index * CHUNK_TILES;
+        int lastTileX = Math.min(map.getWidth(),
+            firstTileX + CHUNK_TILES) - 1;
+        for (int x=firstTileX; x<=lastTileX; x++) {
+            version = Math.max(version, map.getColumnVersion(x) + 1);
+        }
+        return version;
+    }
+
+
+    /**
+     * Releases the image of a chunk.
+     * @param index 
+     */
+    private void flushChunk(int index) {
+        if (chunks[index] != null) {
+            chunks[index].flush();
+            chunks[index] = null;
+            chunkVersions[index] = 0;
+        }
+    }
+
+
+    /**
+     * Releases all the chunk images of the current map.
+     */
+    private void flushChunks() {
+        if (chunks != null) {
+            for (int i=0; i<chunks.length; i++) {
+                flushChunk(i);
+            }
+        }
+        chunks = null;
+        chunkVersions = null;
+        chunkMap = null;
+    }
+
 }
@@ -35,9 +35,8 @@ import java.awt.*;
 import java.util.*;
 import java.awt.event.KeyEvent;
 import java.util.Iterator;
+import java.util.List;
 
-import javax.sound.midi.Sequence;
-import javax.sound.midi.Sequencer;
 import javax.sound.sampled.AudioFormat;
 
 import com.brackeen.javagamebook.graphics.*;
@@ -47,15 +46,13 @@ import com.brackeen.javagamebook.test.GameCore;
 import static com.brackeen.javagamebook.test.GameCore.screen;
 import com.brackeen.javagamebook.tilegame.sprites.*;
 
-import java.util.LinkedList;
-import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,28 +62,107 @@ import java.util.logging.Logger;
 public class WashStart extends GameCore {
 
     public static void main(String[] args) {
-        new WashStart().run();
+        WashStart game = new WashStart();
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-headless")) {
+                game.setHeadless(true);
+            }
+            else if (args[i].equals("-nodraw")) {
+                game.setDrawing(false);
+            }
+            else if (args[i].equals("-realtime")) {
+                game.setRealTime(true);
+            }
+            else if (args[i].equals("-ticks") && i+1 < args.length) {
+                game.setMaxTicks(Long.parseLong(args[++i]));
+            }
+            else if (args[i].equals("-script") && i+1 < args.length) {
+                game.scriptFile = args[++i];
+            }
+            else {
+                System.err.println(USAGE);
+                return;
+            }
+        }
+        game.run();
     }
 
-    // uncompressed, 44100Hz, 16-bit, mono, signed, little-endian
+    private static final String USAGE =
+        "Usage: WashStart [-headless [-nodraw] [-realtime]] " +
+        "[-ticks n] [-script file]";
+
+    // uncompressed, 44100Hz, 16-bit, stereo, signed, little-endian
     private static final AudioFormat PLAYBACK_FORMAT =
-        new AudioFormat(44100, 16, 1, true, false);
+        new AudioFormat(44100, 16, 2, true, false);
+
+    // distance at which positional sounds can't be heard
+    private static final int HEARING_DISTANCE = 800;
+
+    // echo of the level-complete sound: 2000 frames, decaying
+    // to 70% each time
+    private static final int LEVEL_ECHO_SAMPLES =
+        2000 * PLAYBACK_FORMAT.getChannels();
+    private static final float LEVEL_ECHO_DECAY = .7f;
 
     private static final int DRUM_TRACK = 1;
 
+    // music played on levels without a track of their own
+    private static final String DEFAULT_MUSIC = "/sounds/megaman8bit.wav";
+
+    // music played if there's no default track; it is rendered
+    // with and without drums, which can be toggled
+    private static final String MIDI_MUSIC = "/sounds/music.midi";
+
+    // names of the midi music's tracks, without and with drums
+    private static final String[] MUSIC_STEM_NAMES = {
+        MIDI_MUSIC + "#nodrums", MIDI_MUSIC + "#drums"
+    };
+
+    // length of the crossfade when toggling drums
+    private static final int DRUM_CROSSFADE_MILLIS = 500;
+
+    // length of the crossfade between levels' music
+    private static final int MUSIC_CROSSFADE_MILLIS = 2000;
+
+    // sound priorities: when every voice is busy, pickups take
+    // the voices of water gun shots (Sound.DEFAULT_PRIORITY)
+    private static final int BOOP_PRIORITY = 1;
+    private static final int PRIZE_PRIORITY = 2;
+
     public static final float GRAVITY = 0.002f;
 
+    // simulation ticks per second
+    private static final int TICK_RATE = 100;
+
+    // frame cap used if the display's refresh rate is unknown
+    private static final int DEFAULT_FRAME_RATE = 60;
+
+    // file of the high score table, in the working directory
+    private static final String SCORE_FILE = "scores.txt";
+
+    // labels of the high score table
+    private static final String[] SCORE_RANKS = {
+        "#1: ", "#2: ", "#3: ", "#4: ", "#5: "
+    };
+
     private Point pointCache = new Point();
+    private ArrayList<Sprite> nearCache = new ArrayList<Sprite>();
+    private ArrayList<Sprite> collisionCache = new ArrayList<Sprite>();
     private TileMap map;
-    private MidiPlayer midiPlayer;
+    private ArrayList<FutureTask<ByteBuffer>> musicStems;
+    private boolean musicPending;
+    private boolean drumsOn;
     private SoundManager soundManager;
     private ResourceManager resourceManager;
     private Sound prizeSound;
     private Sound boopSound;
-    private Sound bgSound;
-    private SoundClip bgSoundClip;
-    private SoundClip watergunSound;
+    private EchoFilter levelEcho;
+    private Voice levelEchoVoice;
+    private MusicPlayer musicPlayer;
+    private Sound watergunSound;
     private InputManager inputManager;
+    private ScriptedInput scriptedInput;
+    private String scriptFile;
     private TileMapRenderer renderer;
 
     private GameAction moveLeft;
@@ -99,16 +175,18 @@ public class WashStart extends GameCore {
     private GameAction instructions;
     private GameAction credits;
     private GameAction sound;
+    private GameAction audioStats;
     public static ArrayList<Bullet> bullets;
     private int angle;
     private int bulletOffset;
-    private Animation bulletAnim;
+    private boolean bulletRight;
+    private BulletFactory bulletFactory;
+    private TextRenderer hudText;
     
     public static int lives;
     public static int score;
     public static int municiones;
-    private LinkedList<Integer> scorelist; 
-    private String fileName;
+    private ScoreStore scoreStore;
     private String[] arr;
     private boolean bscores;
     private int introCounter;
@@ -149,36 +227,58 @@ public class WashStart extends GameCore {
      * Initializes Game and variables.
      */
     public void init() {
+        // no sound device is needed without a display
+        if (isHeadless()) {
+            SoundManager.setNullSink(true);
+        }
         super.init();
 
+        // run the simulation at a fixed rate, and draw no faster
+        // than the display can show
+        setTickRate(TICK_RATE);
+        int refreshRate =
+            screen.getCurrentDisplayMode().getRefreshRate();
+        if (refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN) {
+            refreshRate = DEFAULT_FRAME_RATE;
+        }
+        setFrameRate(refreshRate);
+
         // set up input manager
         initInput();
 
         // start resource manager
         resourceManager = new ResourceManager(
-        screen.getFullScreenWindow().getGraphicsConfiguration());
+        screen.getGraphicsConfiguration());
 
         // load resources
         renderer = new TileMapRenderer();
 
         // load first map
         map = resourceManager.loadNextMap();
+        updateWindow();
 
         // load sounds
         soundManager = new SoundManager(PLAYBACK_FORMAT);
-        bgSound = soundManager.getSound("/sounds/megaman8bit.wav");
-        watergunSound = new SoundClip("/sounds/watergun.wav");
-        URL urlSound = WashStart.class.getResource("/sounds/megaman8bit.wav");
-        bgSoundClip= new SoundClip("/sounds/megaman8bit.wav",true);//agrega el loop al soundclip
+        watergunSound = soundManager.getSound("/sounds/watergun.wav");
+        prizeSound = soundManager.getSound("/sounds/prize.wav");
+        boopSound = soundManager.getSound("/sounds/boop2.wav");
+        levelEcho = new EchoFilter(LEVEL_ECHO_SAMPLES, LEVEL_ECHO_DECAY);
+        musicPlayer = new MusicPlayer(soundManager);
+
+        // render the midi music, without and with drums, in the
+        // background; it starts playing when it is ready
+        musicStems = new ArrayList<FutureTask<ByteBuffer>>();
+        musicStems.add(renderMusicStem(new int[] { DRUM_TRACK }));
+        musicStems.add(renderMusicStem(new int[0]));
+        drumsOn = false;
 
         // start music
-        midiPlayer = new MidiPlayer();
-        Sequence sequence =
-            midiPlayer.getSequence("/sounds/music.midi");
-        bgSoundClip.play();
-        toggleDrumPlayback();
+        playLevelMusic(0);
         
         bullets = new ArrayList<Bullet>();
+        bulletFactory = new BulletFactory(
+            ResourceManager.bulletAnimationLeft(),
+            ResourceManager.bulletAnimationRight());
         angle=0;
         
         lives = 3;
@@ -219,8 +319,19 @@ public class WashStart extends GameCore {
         bSound = true;
         bPlayer = false;
         
-        fileName = "scores.txt";
-        scorelist = new LinkedList<Integer>();
+        // load the HUD font once; draw() reuses its layouts
+        try {
+            hudText = ResourceManager.getTextRenderer(24f);
+        } catch (FontFormatException ex) {
+            Logger.getLogger(WashStart.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (IOException ex) {
+            Logger.getLogger(WashStart.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        
+        // the top scores are loaded in the background
+        scoreStore = new ScoreStore(new File(SCORE_FILE),
+            SCORE_RANKS.length);
+        scoreStore.load();
         bscores = false;
     }
     
@@ -229,8 +340,13 @@ public class WashStart extends GameCore {
      */
     public void stop() {
         super.stop();
-        midiPlayer.close();
+        if (isHeadless()) {
+            soundManager.getMetrics().dump(System.out);
+        }
+        musicPlayer.close();
         soundManager.close();
+        scoreStore.close();
+        resourceManager.close();
     }
 
     /**
@@ -249,6 +365,7 @@ public class WashStart extends GameCore {
         instructions = new GameAction("instructions", GameAction.DETECT_INITAL_PRESS_ONLY);
         credits = new GameAction("credits", GameAction.DETECT_INITAL_PRESS_ONLY);
         sound = new GameAction("sound", GameAction.DETECT_INITAL_PRESS_ONLY);
+        audioStats = new GameAction("audioStats", GameAction.DETECT_INITAL_PRESS_ONLY);
         
         inputManager = new InputManager(
             screen.getFullScreenWindow());
@@ -264,6 +381,18 @@ public class WashStart extends GameCore {
         inputManager.mapToKey(instructions, KeyEvent.VK_I);
         inputManager.mapToKey(credits, KeyEvent.VK_C);
         inputManager.mapToKey(sound, KeyEvent.VK_S);
+        inputManager.mapToKey(audioStats, KeyEvent.VK_F2);
+
+        // play from a script, over and over, if there is one
+        if (scriptFile != null) {
+            try {
+                scriptedInput = new ScriptedInput(inputManager,
+                    new FileReader(scriptFile));
+                scriptedInput.setLooping(true);
+            } catch (IOException ex) {
+                Logger.getLogger(WashStart.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
     }
     
     /**
@@ -273,18 +402,20 @@ public class WashStart extends GameCore {
         
         resourceManager.setCurrentMap(1);
         map = resourceManager.reloadMap();
+        updateWindow();
+        releaseBullets();
         renderer.setBackground(
-            resourceManager.loadImage("background"+resourceManager.getCurrentMap()+".jpg"));
+            resourceManager.getBackground());
         
         lives = 3;
         score = 0;
         municiones = 3;
         
         bPause = false;
-        bgSoundClip.play();
+        playLevelMusic(MUSIC_CROSSFADE_MILLIS);
+        musicPlayer.resume();
         bSound = true;
         
-        scorelist = new LinkedList<Integer>();
         bscores = false;
         
     }
@@ -317,22 +448,18 @@ public class WashStart extends GameCore {
             }
             player.setVelocityX(velocityX);
             
-            if(player.getStanding()==0){
-                bulletAnim = ResourceManager.bulletAnimationLeft();
-            }else{
-                bulletAnim = ResourceManager.bulletAnimationRight();
-            }
+            bulletRight = (player.getStanding()!=0);
                                    
             if(fire.isPressed() && !bPause){
                 if(player.isFiring()){
                     long elapsed = (System.nanoTime() - player.getBulletTimer())/1000000;
                     if(elapsed > player.getBulletDelay()&&municiones>0){
                         municiones--;
-                        bullets.add(new Bullet(bulletAnim, angle,
+                        bullets.add(bulletFactory.obtain(bulletRight, angle,
                                 player.getX()+bulletOffset,
                                 player.getY()+player.getHeight()/2-16));
                         map.addSprite(bullets.get(bullets.size()-1));
-                        watergunSound.play();
+                        soundManager.play(watergunSound);
                         player.setBulletTimer(System.nanoTime());
                     }
                 }
@@ -342,9 +469,9 @@ public class WashStart extends GameCore {
             if(pause.isPressed()){
                 bPause = !bPause;
                 if(bPause){
-                    bgSoundClip.stop();
+                    musicPlayer.pause();
                 }else{
-                    bgSoundClip.play();
+                    musicPlayer.resume();
                 }
             }
             
@@ -395,11 +522,15 @@ public class WashStart extends GameCore {
             if (sound.isPressed()) {
                 bSound = !bSound;
                 if(!bSound){
-                    bgSoundClip.stop();
+                    musicPlayer.pause();
                 }else{
-                    bgSoundClip.play();
+                    musicPlayer.resume();
                 }
             }
+
+            if (audioStats.isPressed()) {
+                soundManager.getMetrics().dump(System.out);
+            }
             
         }
 
@@ -412,37 +543,76 @@ public class WashStart extends GameCore {
             g2d.drawString(s, start + XPos, YPos);  
      }  
 
+    /**
+     * Draws a static HUD label.
+     * @param g  Graphics2D
+     * @param label  the label
+     * @param x  x position
+     * @param y  y position
+     */
+    private void drawLabel(Graphics2D g, String label, int x, int y) {
+        if (hudText != null) {
+            hudText.drawString(g, label, x, y);
+        }
+        else {
+            g.drawString(label, x, y);
+        }
+    }
+
+    /**
+     * Draws a static HUD label followed by a number. Only the
+     * digits of the number are laid out each frame.
+     * @param g  Graphics2D
+     * @param label  the label
+     * @param value  the number after the label
+     * @param x  x position
+     * @param y  y position
+     */
+    private void drawLabel(Graphics2D g, String label, int value,
+        int x, int y)
+    {
+        if (hudText != null) {
+            float valueX = hudText.drawString(g, label, x, y);
+            hudText.drawNumber(g, value, valueX, y);
+        }
+        else {
+            g.drawString(label + value, x, y);
+        }
+    }
+
     /**
      * Draw Method
      * @param g  Graphics2D
      */
     public void draw(Graphics2D g) {
+        draw(g, 1);
+    }
+
+    /**
+     * Draws the game with the moving Sprites part of the way
+     * between the last two simulation ticks.
+     * @param g  Graphics2D
+     * @param alpha  how far into the next tick the clock is
+     */
+    public void draw(Graphics2D g, float alpha) {
         
-        Window window = ScreenManager.device.getFullScreenWindow();
-        Font font;
-        try {
-            font = ResourceManager.getFont();
-            font = font.deriveFont(24f);
-            g.setFont(font);
-        } catch (FontFormatException ex) {
-            Logger.getLogger(WashStart.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException ex) {
-            Logger.getLogger(WashStart.class.getName()).log(Level.SEVERE, null, ex);
+        if (hudText != null) {
+            g.setFont(hudText.getFont());
         }
         
         if (bIntro && introCounter > 2200) {
             g.drawImage(iIntro, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
             introCounter--;
         }
         else if(bIntro && introCounter > 200){
             g.drawImage(iIntro2, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
             introCounter--;
         }
         else if(bIntro && introCounter > 0){
             g.drawImage(iIntro4, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
             introCounter--;
         }
         else if(bIntro){
@@ -452,20 +622,20 @@ public class WashStart extends GameCore {
         }
         else if (bMenu) {
             g.drawImage(iMenu, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
         }
         else if (bBoy && bPlayer) {
             g.drawImage(iBoy, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
         }
         else if (bGirl && bPlayer) {
             g.drawImage(iGirl, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
         }
         else if (lives>0) {
             if (!bPause){
                 renderer.draw(g, map,
-                screen.getWidth(), screen.getHeight());
+                screen.getWidth(), screen.getHeight(), alpha);
                 /*
                 for(int j = 0; j < bullets.size(); j++){
                     bullets.get(j).draw(g);
@@ -476,31 +646,32 @@ public class WashStart extends GameCore {
                     g.drawImage(iLives, i*60+5, 10, null);
                 }
                 
-                g.drawString("Puntaje: " + score, 5, 60);
-                g.drawString("Municiones: " + municiones, 5, 90);
+                drawLabel(g, "Puntaje: ", score, 5, 60);
+                drawLabel(g, "Municiones: ", municiones, 5, 90);
             }
             else {
                 g.drawImage(iPause, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
             }
             
         }
         else {
             g.drawImage(iGameOver, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
-            g.drawString("Puntajes más altos", 50, 50);
-            for (int i = 0; i<5 && i<scorelist.size(); i++) {
-                g.drawString("#" + (i+1) + ": " + scorelist.get(i), 100, 100+50*i);
+                    screen.getWidth(), screen.getHeight(), null);
+            drawLabel(g, "Puntajes más altos", 50, 50);
+            int[] scores = scoreStore.getScores();
+            for (int i = 0; i<SCORE_RANKS.length && i<scores.length; i++) {
+                drawLabel(g, SCORE_RANKS[i], scores[i], 100, 100+50*i);
             }
         }
         
         if (bInstr) {
             g.drawImage(iInstr, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
         }
         else if (bCredits) {
             g.drawImage(iCredits, 0, 0,
-                    window.getWidth(), window.getHeight(), null);
+                    screen.getWidth(), screen.getHeight(), null);
         }
         
     }
@@ -511,15 +682,41 @@ public class WashStart extends GameCore {
     public TileMap getMap() {
         return map;
     }
+
+    /**
+     * Sets the current map, so the game logic can be run
+     * against a map without calling init() (for example, from
+     * the benchmarks).
+     */
+    void setMap(TileMap map) {
+        this.map = map;
+    }
+
+
+    /**
+     * Moves the map's window to the part of the map on screen,
+     * so the chunks around it are resident and the Sprites far
+     * from it are dormant.
+     */
+    private void updateWindow() {
+        int screenWidth = screen.getWidth();
+        int offsetX = TileMapRenderer.getOffsetX(map,
+            Math.round(map.getPlayer().getX()), screenWidth);
+        map.setWindow(TileMapRenderer.pixelsToTiles(-offsetX),
+            TileMapRenderer.pixelsToTiles(-offsetX + screenWidth - 1));
+    }
     
     /**
      * Turns on/off drum playback in the midi music (track 1).
+     * If the midi music is playing, it crossfades to the stem
+     * with or without drums.
      */
     public void toggleDrumPlayback() {
-        Sequencer sequencer = midiPlayer.getSequencer();
-        if (sequencer != null) {
-            sequencer.setTrackMute(DRUM_TRACK,
-                !sequencer.getTrackMute(DRUM_TRACK));
+        boolean stemPlaying = musicPending ||
+            getMusicStemName().equals(musicPlayer.getTrack());
+        drumsOn = !drumsOn;
+        if (stemPlaying) {
+            playMusicStem(DRUM_CROSSFADE_MILLIS, true);
         }
     }
     
@@ -553,7 +750,7 @@ public class WashStart extends GameCore {
         for (int x=fromTileX; x<=toTileX; x++) {
             for (int y=fromTileY; y<=toTileY; y++) {
                 if (x < 0 || x >= map.getWidth() ||
-                    map.getTile(x, y) != null)
+                    map.isSolid(x, y))
                 {
                     // collision found, return the tile
                     pointCache.setLocation(x, y);
@@ -606,19 +803,42 @@ public class WashStart extends GameCore {
      * @return Sprite
      */
     public Sprite getSpriteCollision(Sprite sprite) {
+        collisionCache.clear();
+        getSpriteCollisions(sprite, collisionCache);
+        if (collisionCache.isEmpty()) {
+            // no collision found
+            return null;
+        }
+        return collisionCache.get(0);
+    }
+
+    /**
+     * Adds every Sprite that collides with the specified Sprite
+     * to a list. Only the Sprites in the map cells the Sprite
+     * overlaps are checked.
+     *
+     * @param sprite
+     * @param result  the list the colliding Sprites are added to
+     * @return the number of colliding Sprites found
+     */
+    public int getSpriteCollisions(Sprite sprite, List<Sprite> result) {
+        int count = 0;
 
-        // run through the list of Sprites
-        Iterator i = map.getSprites();
-        while (i.hasNext()) {
-            Sprite otherSprite = (Sprite)i.next();
+        // get the Sprites near this one
+        nearCache.clear();
+        map.getSpritesNear(Math.round(sprite.getX()),
+            Math.round(sprite.getY()),
+            sprite.getWidth(), sprite.getHeight(), nearCache);
+
+        for (int i=0; i<nearCache.size(); i++) {
+            Sprite otherSprite = nearCache.get(i);
             if (isCollision(sprite, otherSprite)) {
-                // collision found, return the Sprite
-                return otherSprite;
+                result.add(otherSprite);
+                count++;
             }
         }
-
-        // no collision found
-        return null;
+        nearCache.clear();
+        return count;
     }
     
     /**
@@ -629,15 +849,36 @@ public class WashStart extends GameCore {
      */
     public void update(long elapsedTime) {
         Creature player = (Creature)map.getPlayer();
+        if (musicPending) {
+            playMusicStem(DRUM_CROSSFADE_MILLIS, true);
+        }
+        musicPlayer.update(elapsedTime);
 
 
-        // player is dead! start map over
+        // player is dead! start map over. The map is reset in
+        // place, so bullets still flying are dropped.
         if (player.getState() == Creature.STATE_DEAD) {
             map = resourceManager.reloadMap();
+            updateWindow();
+            releaseBullets();
             return;
         }
 
+        // stream the map in around the screen
+        updateWindow();
+
+        // remember where everything was before this tick, so
+        // it can be drawn in between
+        player.savePosition();
+        Iterator saved = map.getSprites();
+        while (saved.hasNext()) {
+            ((Sprite)saved.next()).savePosition();
+        }
+
         // get keyboard/mouse input
+        if (scriptedInput != null) {
+            scriptedInput.update();
+        }
         checkInput(elapsedTime);
         
         if (!bPause){
@@ -665,7 +906,7 @@ public class WashStart extends GameCore {
                 boolean remove = bullets.get(j).updateBullet(elapsedTime);
                 if(remove){
                     map.removeSprite(bullets.get(j));
-                    bullets.remove(j);
+                    bulletFactory.release(bullets.remove(j));
                     j--;
                 } 
             }
@@ -673,15 +914,10 @@ public class WashStart extends GameCore {
         }
         
         if (lives<=0 && !bscores) {
-            scorelist.add(score);
-            
-            try {
-                readFile();
-                saveFile();
-                bscores = true;
-            } catch (IOException ex) {
-                System.out.println("Error in " + ex.toString());
-            }
+            // saved in the background; the table is drawn when
+            // it's ready
+            scoreStore.submit(score);
+            bscores = true;
         }
         
     }
@@ -776,7 +1012,7 @@ public class WashStart extends GameCore {
             Creature badguy = (Creature)collisionSprite;
             if (canKill) {
                 // kill the badguy and make player bounce
-                soundManager.play(boopSound);
+                playAt(boopSound, badguy, BOOP_PRIORITY);
                 badguy.setState(Creature.STATE_DYING);
                 player.setY(badguy.getY() - player.getHeight());
                 player.jump(true);
@@ -792,6 +1028,17 @@ public class WashStart extends GameCore {
         }
     }
      
+    /**
+     * Returns every bullet to the BulletFactory.
+     */
+    private void releaseBullets() {
+        for (int i = 0; i<bullets.size(); i++) {
+            map.removeSprite(bullets.get(i));
+            bulletFactory.release(bullets.get(i));
+        }
+        bullets.clear();
+    }
+    
     /**
      * Checks for Grub collision with bullets. Bullets kill grub.
      * 
@@ -801,14 +1048,25 @@ public class WashStart extends GameCore {
     public void checkBulletCollision()
     {
         for(int i = 0; i<bullets.size(); i++){
-            Sprite collisionSprite = getSpriteCollision(bullets.get(i));
-            if(collisionSprite instanceof Grub || collisionSprite instanceof Fly){
-                Creature badguy = (Creature)collisionSprite;
+            // a bullet may overlap pickups too, so look for the
+            // first enemy among all the overlaps
+            Creature badguy = null;
+            collisionCache.clear();
+            getSpriteCollisions(bullets.get(i), collisionCache);
+            for (int j = 0; j<collisionCache.size() && badguy == null; j++) {
+                Sprite collisionSprite = collisionCache.get(j);
+                if(collisionSprite instanceof Grub || collisionSprite instanceof Fly){
+                    badguy = (Creature)collisionSprite;
+                }
+            }
+            if(badguy != null){
                 badguy.setVidas(badguy.getVidas()-1);
                 map.removeSprite(bullets.get(i));
-                bullets.remove(i);
+                bulletFactory.release(bullets.remove(i));
+                i--;
                 if(badguy.getVidas()==0){
                     badguy.setState(Creature.STATE_DYING);
+                    playAt(boopSound, badguy, BOOP_PRIORITY);
                     score+=100;
                 }
             }
@@ -829,61 +1087,158 @@ public class WashStart extends GameCore {
             // do something here, like give the player points
             score += 50;
             municiones += 1;
-            soundManager.play(prizeSound);
+            soundManager.play(prizeSound, null, false, PRIZE_PRIORITY);
         }
         else if (powerUp instanceof PowerUp.Music) {
             // change the music
-            soundManager.play(prizeSound);
+            soundManager.play(prizeSound, null, false, PRIZE_PRIORITY);
             toggleDrumPlayback();
         }
         else if (powerUp instanceof PowerUp.Goal) {
             // advance to next map
-            soundManager.play(prizeSound,
-                new EchoFilter(2000, .7f), false);
+            playLevelComplete();
             municiones = 3;
+            // usually loaded in the background already
             map = resourceManager.loadNextMap();
+            updateWindow();
             renderer.setBackground(
-            resourceManager.loadImage("background"+resourceManager.getCurrentMap()+".jpg"));
+            resourceManager.getBackground());
+            playLevelMusic(MUSIC_CROSSFADE_MILLIS);
         }
     }
-    
+
+
     /**
-     * Reads the scores' file, to get the current saved score list.
-     * @throws IOException 
+     * Plays the level-complete sound with its echo. The echo
+     * filter is reset and reused, unless the last level-complete
+     * sound is still echoing.
      */
-    public void readFile() throws IOException {
-        BufferedReader fileIn;
-        try {
-            fileIn = new BufferedReader(new FileReader(fileName));
-        } catch (FileNotFoundException e){
-            File points = new File(fileName);
-            PrintWriter fileOut = new PrintWriter(points);
-            fileOut.println("0");
-            fileOut.close();
-            fileIn = new BufferedReader(new FileReader(fileName));
-        }
-        String dato = fileIn.readLine();
-        while(dato != null) {
-            int number = (Integer.parseInt(dato));
-            scorelist.add(number);
-            dato = fileIn.readLine();
-        }
-        fileIn.close();
+    private void playLevelComplete() {
+        if (levelEchoVoice != null && levelEchoVoice.isPlaying()) {
+            // don't disturb the echo that's still playing
+            soundManager.play(prizeSound, new EchoFilter(
+                LEVEL_ECHO_SAMPLES, LEVEL_ECHO_DECAY), false,
+                PRIZE_PRIORITY);
+            return;
         }
-    
+        levelEcho.reset();
+        levelEchoVoice = soundManager.play(prizeSound, levelEcho, false,
+            PRIZE_PRIORITY);
+    }
+
+
     /**
-     * Saves the updated score list into the file.
-     * @throws IOException 
+     * Plays a sound from where a sprite is, relative to the
+     * player: quieter the farther away it is, and panned to its
+     * side.
+     * @param sound  the sound to play
+     * @param source  the sprite the sound comes from
+     * @param priority  the priority of the sound
      */
-    public void saveFile() throws IOException {
-        
-        Collections.sort(scorelist);
-        Collections.reverse(scorelist);
-        
-        PrintWriter fileOut = new PrintWriter(new FileWriter(fileName));
-        for (int i = 0; i<5 && i<scorelist.size(); i++) {
-            fileOut.println(scorelist.get(i));
+    private void playAt(Sound sound, Sprite source, int priority) {
+        soundManager.play(sound, new Filter3d(source, map.getPlayer(),
+            HEARING_DISTANCE, PLAYBACK_FORMAT.getChannels()), false,
+            priority);
+    }
+
+
+    /**
+     * Plays the music of the current map: /sounds/levelN.wav if
+     * the map has a track of its own, the default track, or else
+     * the pre-rendered midi music.
+     * @param fadeMillis  the length of the crossfade
+     */
+    private void playLevelMusic(int fadeMillis) {
+        String name = "/sounds/level" + resourceManager.getCurrentMap() +
+            ".wav";
+        if (WashStart.class.getResource(name) == null) {
+            name = DEFAULT_MUSIC;
+        }
+        musicPending = false;
+        if (WashStart.class.getResource(name) != null) {
+            musicPlayer.play(name, true, fadeMillis);
+        }
+        else {
+            playMusicStem(fadeMillis, false);
+        }
+    }
+
+
+    /**
+     * Plays the midi music stem for the current drum setting. If
+     * it is still being rendered, update() plays it when it is
+     * ready.
+     * @param fadeMillis  the length of the crossfade
+     * @param inTime  true to start the stem where the current
+     * track is, to switch between stems of the music
+     */
+    private void playMusicStem(int fadeMillis, boolean inTime) {
+        musicPending = !musicStems.get(drumsOn ? 1 : 0).isDone();
+        ByteBuffer stem = getMusicStem();
+        if (stem == null) {
+            return;
+        }
+        if (inTime) {
+            musicPlayer.switchTo(getMusicStemName(), stem, true,
+                fadeMillis);
+        }
+        else {
+            musicPlayer.play(getMusicStemName(), stem, true, fadeMillis);
+        }
+    }
+
+
+    /**
+     * Starts rendering a stem of the midi music on the resource
+     * manager's background thread.
+     * @param mutedTracks  the indexes of the tracks to mute
+     * @return the task rendering the stem
+     */
+    private FutureTask<ByteBuffer> renderMusicStem(
+        final int[] mutedTracks)
+    {
+        final MidiRenderer midiRenderer =
+            new MidiRenderer(PLAYBACK_FORMAT);
+        FutureTask<ByteBuffer> task = new FutureTask<ByteBuffer>(
+            new Callable<ByteBuffer>() {
+                public ByteBuffer call() {
+                    return midiRenderer.getStem(MIDI_MUSIC, mutedTracks);
+                }
+            });
+        resourceManager.runInBackground(task);
+        return task;
+    }
+
+
+    /**
+     * Gets the midi music stem for the current drum setting.
+     * @return the stem, or null if it isn't rendered yet or
+     * couldn't be rendered
+     */
+    private ByteBuffer getMusicStem() {
+        FutureTask<ByteBuffer> stem = musicStems.get(drumsOn ? 1 : 0);
+        if (!stem.isDone()) {
+            return null;
         }
-        fileOut.close();
+        try {
+            return stem.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ex) {
+            ex.getCause().printStackTrace();
+        }
+        return null;
+    }
+
+
+    /**
+     * Gets the name of the midi music stem for the current drum
+     * setting.
+     * @return the name of the stem
+     */
+    private String getMusicStemName() {
+        return MUSIC_STEM_NAMES[drumsOn ? 1 : 0];
     }
 }
@@ -44,6 +44,9 @@ public class Bullet extends Sprite{
     private double speed;
     private boolean live;
     
+    // which pool of the BulletFactory this bullet goes back to
+    boolean facingRight;
+    
     private Color color1;
     
     //Constructor
@@ -52,20 +55,36 @@ public class Bullet extends Sprite{
         super(anim, x, y);
         
         r=6;
+        // pixels per millisecond
+        speed = 0.4;
+        color1 = Color.BLUE;
+        reset(angle, x, y);
+        
+    }
+    
+    /**
+     * Fires this bullet again from the specified position, so
+     * pooled bullets can be reused.
+     * @param angle  direction of the bullet, in degrees
+     * @param x  x position
+     * @param y  y position
+     */
+    public void reset(double angle, float x, float y){
+        setX(x);
+        setY(y);
+        savePosition();
         
         rad = Math.toRadians(angle);
-        speed = 4;
         ddx = Math.cos(rad) * speed;
         ddy = Math.sin(rad) * speed;
         
-        color1 = Color.BLUE;
         live=false;
-        
+        anim.start();
     }
     
     public boolean updateBullet(long elapsedTime){
-        this.setX(this.getX()+(float)ddx);
-        this.setY(this.getY()+(float)ddy);
+        this.setX(this.getX()+(float)(ddx*elapsedTime));
+        this.setY(this.getY()+(float)(ddy*elapsedTime));
         
         //anim.update(elapsedTime);
         
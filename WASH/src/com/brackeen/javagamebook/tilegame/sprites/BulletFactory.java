@@ -0,0 +1,74 @@
+package com.brackeen.javagamebook.tilegame.sprites;
+
+import java.util.ArrayList;
+import com.brackeen.javagamebook.graphics.Animation;
+
+/**
+ * The BulletFactory creates Bullets from two prototype
+ * Animations (left and right facing), and keeps a pool of
+ * released Bullets so firing doesn't load images or allocate
+ * once the pool is warm.
+ */
+public class BulletFactory {
+
+    private Animation leftPrototype;
+    private Animation rightPrototype;
+    private ArrayList<Bullet> freeLeft;
+    private ArrayList<Bullet> freeRight;
+
+    /**
+     * Creates a new BulletFactory with the specified prototype
+     * Animations. Each Bullet gets its own clone of one of
+     * them.
+     * @param leftPrototype  the left-facing Animation
+     * @param rightPrototype  the right-facing Animation
+     */
+    public BulletFactory(Animation leftPrototype,
+        Animation rightPrototype)
+    {
+        this.leftPrototype = leftPrototype;
+        this.rightPrototype = rightPrototype;
+        freeLeft = new ArrayList<Bullet>();
+        freeRight = new ArrayList<Bullet>();
+    }
+
+
+    /**
+     * Gets a Bullet, reusing a released one if possible.
+     * @param right  true for a right-facing Bullet
+     * @param angle  direction of the bullet, in degrees
+     * @param x  x position
+     * @param y  y position
+     * @return the Bullet
+     */
+    public Bullet obtain(boolean right, double angle, float x,
+        float y)
+    {
+        ArrayList<Bullet> free = right ? freeRight : freeLeft;
+        if (free.isEmpty()) {
+            Animation prototype = right ? rightPrototype : leftPrototype;
+            Bullet bullet = new Bullet((Animation)prototype.clone(),
+                angle, x, y);
+            bullet.facingRight = right;
+            return bullet;
+        }
+        Bullet bullet = free.remove(free.size() - 1);
+        bullet.reset(angle, x, y);
+        return bullet;
+    }
+
+
+    /**
+     * Returns a Bullet to the pool. The Bullet must not be used
+     * after it is released.
+     * @param bullet  the Bullet to release
+     */
+    public void release(Bullet bullet) {
+        if (bullet.facingRight) {
+            freeRight.add(bullet);
+        }
+        else {
+            freeLeft.add(bullet);
+        }
+    }
+}
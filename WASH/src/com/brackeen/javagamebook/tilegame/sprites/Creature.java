@@ -112,6 +112,21 @@ public abstract class Creature extends Sprite {
     }
 
 
+    /**
+     * Puts this Creature back the way it was when it was
+     * created: alive, facing right, and not moving.
+     */
+    public void reset() {
+        anim = right;
+        super.reset();
+        onGround = false;
+        state = STATE_NORMAL;
+        stateTime = 0;
+        standing = 1;
+        vidas = 3;
+    }
+
+
     /**
      * Gets the maximum speed of this Creature.
      * @return float
@@ -212,6 +227,9 @@ public abstract class Creature extends Sprite {
      * @param elapsedTime 
      */
     public void update(long elapsedTime) {
+        int oldWidth = getWidth();
+        int oldHeight = getHeight();
+
         // select the correct Animation
         Animation newAnim = anim;
         if(this.onGround == false && getVelocityX() < 0 ){
@@ -272,6 +290,7 @@ public abstract class Creature extends Sprite {
         else {
             anim.update(elapsedTime);
         }
+        checkSize(oldWidth, oldHeight);
 
         // update to "dead" state
         stateTime += elapsedTime;
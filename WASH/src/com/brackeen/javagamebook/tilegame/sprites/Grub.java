@@ -25,6 +25,15 @@ public class Grub extends Creature {
         super(left, right, deadLeft, deadRight, standingLeft, standingRight, jumpingLeft, jumpingRight);
         this.onGround=true;
     }
+
+    /**
+     * Reset the grub, on the ground
+     */
+    
+    public void reset() {
+        super.reset();
+        this.onGround=true;
+    }
     
     /**
      * Get Max Speed
@@ -35,6 +35,16 @@ public class Player extends Creature {
         bulletDelay = 500;
     }
 
+    /**
+     * Reset the player, not firing
+     */
+    
+    public void reset() {
+        super.reset();
+        firing = false;
+        bulletTimer = System.nanoTime();
+    }
+
     /**
      * Set Velocity after collide horizontal
      */
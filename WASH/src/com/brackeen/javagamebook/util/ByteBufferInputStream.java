@@ -0,0 +1,85 @@
+package com.brackeen.javagamebook.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The ByteBufferInputStream is an InputStream that reads from a
+ * ByteBuffer, such as a file mapped into memory with
+ * FileChannel.map(). The stream supports mark() and reset(),
+ * and can be rewound to read the buffer again.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private ByteBuffer buffer;
+    private int mark;
+
+    /**
+     * Creates a new ByteBufferInputStream that reads the
+     * specified buffer from its current position to its limit.
+     * The buffer is not copied.
+     * @param buffer  the buffer to read
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+        mark = buffer.position();
+    }
+
+
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+
+    public int read(byte[] b, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        length = Math.min(length, buffer.remaining());
+        buffer.get(b, offset, length);
+        return length;
+    }
+
+
+    public long skip(long n) {
+        int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+
+    public int available() {
+        return buffer.remaining();
+    }
+
+
+    public boolean markSupported() {
+        return true;
+    }
+
+
+    public void mark(int readLimit) {
+        mark = buffer.position();
+    }
+
+
+    public void reset() {
+        buffer.position(mark);
+    }
+
+
+    /**
+     * Moves back to the start of the buffer, so it can be read
+     * again.
+     */
+    public void rewind() {
+        buffer.rewind();
+        mark = 0;
+    }
+}
@@ -1,34 +1,84 @@
 package com.brackeen.javagamebook.util;
-import java.util.LinkedList;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A thread pool is a group of a limited number of threads that
  * are used to execute tasks.
+ * <p>Tasks wait in a lock-free queue. runTask() never blocks: it
+ * adds the task to the queue and wakes an idle thread, if there
+ * is one. Idle threads park until they are woken.
+ * <p>The threads can be virtual threads, on JDKs that have them
+ * (see isVirtualThreadSupported()). Otherwise they are platform
+ * threads.
  */
-public class ThreadPool extends ThreadGroup {
+public class ThreadPool {
 
-    private boolean isAlive;
-    private LinkedList taskQueue;
-    private int threadID;
     private static int threadPoolID;
 
+    private volatile boolean isAlive;
+    private ConcurrentLinkedQueue<Runnable> taskQueue;
+    private ConcurrentLinkedQueue<Thread> idleThreads;
+    private Thread[] threads;
+    private String name;
+    private int threadID;
+
     /**
      * Creates a new ThreadPool.
      * @param numThreads The number of threads in the pool.
      */
     public ThreadPool(int numThreads) {
-        super("ThreadPool-" + (threadPoolID++));
-        setDaemon(true);
+        this(numThreads, false);
+    }
+
+
+    /**
+     * Creates a new ThreadPool, optionally of virtual threads.
+     * If virtual threads aren't supported, platform threads are
+     * used.
+     * @param numThreads The number of threads in the pool.
+     * @param virtual true to use virtual threads
+     */
+    public ThreadPool(int numThreads, boolean virtual) {
+        synchronized (ThreadPool.class) {
+            name = "ThreadPool-" + (threadPoolID++);
+        }
 
         isAlive = true;
 
-        taskQueue = new LinkedList();
+        taskQueue = new ConcurrentLinkedQueue<Runnable>();
+        idleThreads = new ConcurrentLinkedQueue<Thread>();
+        threads = new Thread[numThreads];
+        for (int i=0; i<numThreads; i++) {
+            threads[i] = createThread(new PooledThread(), virtual);
+            threads[i].setName("PooledThread-" + (threadID++));
+        }
         for (int i=0; i<numThreads; i++) {
-            new PooledThread().start();
+            threads[i].start();
         }
     }
 
 
+    /**
+     * Returns whether threads can be virtual threads on this
+     * JDK.
+     * @return true if virtual threads are supported
+     */
+    public static boolean isVirtualThreadSupported() {
+        return (getVirtualThreadFactory() != null);
+    }
+
+
+    /**
+     * Gets the name of this ThreadPool.
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+
     /**
      * Requests a new task to run. This method returns
      * immediately, and the task executes on the next available
@@ -38,33 +88,55 @@ public class ThreadPool extends ThreadGroup {
      * @throws IllegalStateException if this ThreadPool is
      * already closed.
     */
-    public synchronized void runTask(Runnable task) {
+    public void runTask(Runnable task) {
         if (!isAlive) {
             throw new IllegalStateException();
         }
         if (task != null) {
-            taskQueue.add(task);
-            notify();
+            taskQueue.offer(task);
+            Thread idle = idleThreads.poll();
+            if (idle != null) {
+                LockSupport.unpark(idle);
+            }
         }
-
     }
 
+
     /**
-     * Runnable
-     * @return synchronized
-     * @throws InterruptedException 
+     * Gets the next task to run, waiting until there is one.
+     * Returns null if this ThreadPool is no longer alive and no
+     * tasks are waiting.
+     * @return the next task, or null
+     * @throws InterruptedException if the thread is interrupted
      */
-    
-    protected synchronized Runnable getTask()
-        throws InterruptedException
-    {
-        while (taskQueue.size() == 0) {
+    protected Runnable getTask() throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        while (true) {
+            Runnable task = taskQueue.poll();
+            if (task != null) {
+                return task;
+            }
             if (!isAlive) {
                 return null;
             }
-            wait();
+
+            // announce that this thread is idle, then check again,
+            // so a task added in between isn't missed
+            idleThreads.offer(thread);
+            task = taskQueue.poll();
+            if (task != null || !isAlive) {
+                idleThreads.remove(thread);
+                if (task != null) {
+                    return task;
+                }
+                continue;
+            }
+            LockSupport.park(this);
+            idleThreads.remove(thread);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
         }
-        return (Runnable)taskQueue.removeFirst();
     }
 
 
@@ -74,11 +146,13 @@ public class ThreadPool extends ThreadGroup {
      * executed. Once a ThreadPool is closed, no more tasks can
      * be run on this ThreadPool.
      */
-    public synchronized void close() {
+    public void close() {
         if (isAlive) {
             isAlive = false;
             taskQueue.clear();
-            interrupt();
+            for (int i=0; i<threads.length; i++) {
+                threads[i].interrupt();
+            }
         }
     }
 
@@ -88,17 +162,18 @@ public class ThreadPool extends ThreadGroup {
      * to finish. Any waiting tasks are executed.
      */
     public void join() {
-        // notify all waiting threads that this ThreadPool is no
-        // longer alive
-        synchronized (this) {
-            isAlive = false;
-            notifyAll();
+        // wake all idle threads, so they see that this ThreadPool
+        // is no longer alive
+        isAlive = false;
+        for (int i=0; i<threads.length; i++) {
+            LockSupport.unpark(threads[i]);
         }
 
         // wait for all threads to finish
-        Thread[] threads = new Thread[activeCount()];
-        int count = enumerate(threads);
-        for (int i=0; i<count; i++) {
+        for (int i=0; i<threads.length; i++) {
+            if (threads[i] == Thread.currentThread()) {
+                continue;
+            }
             try {
                 threads[i].join();
             }
@@ -129,23 +204,58 @@ public class ThreadPool extends ThreadGroup {
 
 
     /**
-     * A PooledThread is a Thread in a ThreadPool group, designed
-     * to run tasks (Runnables).
+     * Creates an unstarted thread, virtual if requested and
+     * supported.
      */
-    private class PooledThread extends Thread {
+    private static Thread createThread(Runnable runnable,
+        boolean virtual)
+    {
+        if (virtual) {
+            Object factory = getVirtualThreadFactory();
+            if (factory != null) {
+                try {
+                    Method unstarted = Class.forName(
+                        "java.lang.Thread$Builder").getMethod(
+                        "unstarted", Runnable.class);
+                    return (Thread)unstarted.invoke(factory, runnable);
+                }
+                catch (Exception ex) {
+                    // fall back to a platform thread
+                }
+            }
+        }
+        return new Thread(runnable);
+    }
 
 
-        public PooledThread() {
-            super(ThreadPool.this,
-                "PooledThread-" + (threadID++));
+    /**
+     * Gets a Thread.Builder for virtual threads, or null if the
+     * JDK doesn't have virtual threads. Found by reflection, so
+     * this class still runs on older JDKs.
+     */
+    private static Object getVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            return ofVirtual.invoke(null);
+        }
+        catch (Exception ex) {
+            return null;
         }
+    }
 
 
+    /**
+     * A PooledThread runs tasks (Runnables) from the queue of a
+     * ThreadPool.
+     */
+    private class PooledThread implements Runnable {
+
         public void run() {
             // signal that this thread has started
             threadStarted();
 
-            while (!isInterrupted()) {
+            Thread thread = Thread.currentThread();
+            while (!thread.isInterrupted()) {
 
                 // get a task to run
                 Runnable task = null;
@@ -165,11 +275,12 @@ public class ThreadPool extends ThreadGroup {
                     task.run();
                 }
                 catch (Throwable t) {
-                    uncaughtException(this, t);
+                    thread.getUncaughtExceptionHandler()
+                        .uncaughtException(thread, t);
                 }
             }
             // signal that this thread has stopped
             threadStopped();
         }
     }
-}
\ No newline at end of file
+}